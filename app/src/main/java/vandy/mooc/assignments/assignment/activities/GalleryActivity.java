@@ -101,6 +101,10 @@ public class GalleryActivity
                     for (Uri uri : urls)
                         Log.i("TRACE", "About to setItem for " + uri.toString());
                     super.setItems(urls);
+
+                    // Start warming the disk cache before the grid requests
+                    // the images.
+                    super.prefetchItems(urls);
                 }
         } else {
             // The activity is being recreated after configuration change.
@@ -1,13 +1,36 @@
 package vandy.mooc.assignments.assignment.downloader;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Handler;
-import android.os.Looper;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
 import android.util.Log;
 
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import vandy.mooc.assignments.framework.downloader.Priority;
+import vandy.mooc.assignments.framework.downloader.Request;
+
 /**
- * A HaMeR downloader implementation that uses two Runnables and a background
- * thread to download a single image in a background thread.
+ * A HaMeR downloader implementation that downloads a single image in a
+ * background thread. Rather than creating a new thread for every download,
+ * all HaMeRDownloader instances share a small fixed pool of HandlerThread
+ * loopers. Each download is sent as a Message to the least busy looper which
+ * performs the network I/O, hands the downloaded file off to the
+ * DownloadManager's decode stage, and the decoded result is delivered to the
+ * main thread in frame aligned batches. Pending downloads
+ * are cancelled (or paused) by removing their Message from the looper's
+ * message queue.
+ * <p/>
+ * The number of download messages queued on the loopers is bounded. When the
+ * bound is reached, new LOW priority downloads and otherwise the oldest
+ * pending download (the one most likely to have scrolled out of view) are
+ * deferred rather than sent; a deferred download is sent as soon as a looper
+ * starts another download. No download is ever dropped or reported as failed
+ * because the queue is full.
  * <p/>
  * The base ImageDownloader class provides helper methods to perform the
  * download operation as well as to return the resulting image bitmap to the
@@ -20,164 +43,426 @@ public class HaMeRDownloader extends ImageDownloader {
     private static final String TAG = "HaMeRDownloader";
 
     /**
-     * Create a new handler that is associated with the main thread looper.
+     * Download lifecycle states.
+     */
+    private static final int STATE_NEW = 0;
+    private static final int STATE_QUEUED = 1;
+    private static final int STATE_PAUSED = 2;
+    private static final int STATE_RUNNING = 3;
+    private static final int STATE_COMPLETED = 4;
+    private static final int STATE_CANCELLED = 5;
+
+    /**
+     * The current download state (see STATE_* constants).
      */
-    // Create a private final Handler associated with the main
-    // thread looper. Note that this class and all its fields are instantiated
-    // in the main thread.
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile int mState = STATE_NEW;
 
     /**
-     * A reference to the background thread to support the cancel hook.
+     * The looper handler that this download was last sent to (guarded by the
+     * WorkerPool lock).
      */
-    private Thread mThread;
+    private Handler mWorker;
 
     /**
-     * Starts the asynchronous download request.
+     * Starts the asynchronous download request by sending it to the worker
+     * pool.
      */
     @Override
     public void execute() {
-        Log.i("TRACE", "Within execute");
-        // Create a new final Runnable called 'downloadRunnable' to
-        // process the download request (replace the null).
-        final Runnable downloadRunnable = new Runnable() {
-
-            // Within the new runnable's run() method:
-            @Override
-            public void run() {
-
-                // Call the HaMeRDownloader helper method to
-                // determine if this thread has been interrupted; if so,
-                // just return to terminate the thread.
-                if (isInterrupted()) {
-                    cancel();
-                    return;
-                }
-
-                // Call ImageDownloader super class helper method
-                // to download the bitmap.
-                Bitmap bitMap = download();
-
-                // Since the download my take a while, check again to
-                // make sure that this thread has not been interrupted (using
-                // the same helper method as above); if it has been interrupted
-                // then just return to terminate the thread.
-                if (isInterrupted()) {
-                    cancel();
-                    return;
-                }
+        mState = STATE_QUEUED;
+        WorkerPool.get().enqueue(this);
+    }
 
-                // Use the mHandler post(...) helper method to post
-                // a new Runnable to the main thread. This Runnable's run()
-                // method should simply call the ImageDownloader super class
-                // helper method postResult(...) to pass the downloaded bitmap
-                // to the application UI layer (activity) to display.
-                final Runnable runnable = new Runnable() {
-                    @Override
-                    public void run() {
-                        postResult(bitMap);
-                    }
-                };
-
-                mHandler.post(runnable);
-            }
-        };
+    /**
+     * Restores the initial download state so that this downloader can be
+     * reused for another request.
+     */
+    @Override
+    protected void reset() {
+        super.reset();
+        mState = STATE_NEW;
+        synchronized (WorkerPool.get()) {
+            mWorker = null;
+        }
+    }
 
-        // Create a new Thread instance that will run the
-        // 'downloadRunnable' created above, and assign it to the mThread
-        // field. This assignment is necessary to support cancelling this
-        // thread and the download operation.
-        mThread = new Thread(downloadRunnable);
+    /**
+     * Cancels the current download operation. A pending download is removed
+     * from its looper's message queue. A running download will stop at the
+     * next cancel checkpoint of the request and its result is discarded.
+     */
+    @Override
+    public void cancel() {
+        mState = STATE_CANCELLED;
+        WorkerPool.get().remove(this);
+    }
 
-        // Start the thread.
-        mThread.start();
+    /**
+     * Pauses a pending download by removing it from its looper's message
+     * queue. A running download is allowed to complete.
+     */
+    @Override
+    public void pause() {
+        if (WorkerPool.get().remove(this)) {
+            mState = STATE_PAUSED;
+        }
     }
 
     /**
-     * Cancels the current download operation.
+     * Resumes a paused download by sending it to the worker pool again.
      */
     @Override
-    public void cancel() {
-        // Call local isRunning() helper method to check if mThread
-        // is currently running; if it is running, cancel it by calling its
-        // interrupt() helper method.
-        if (this.isRunning())
-            mThread.interrupt();
+    public void resume() {
+        if (mState == STATE_PAUSED) {
+            mState = STATE_QUEUED;
+            WorkerPool.get().enqueue(this);
+        }
     }
 
     /**
-     * Checks to see if the download thread has been interrupted.
-     *
-     * @return {@code true} if the calling thread has been interrupted; {@code
-     * false} if not.
+     * Re-sends a pending download so that it is queued according to the new
+     * request priority.
      */
-    private boolean isInterrupted() {
-        // return 'true' if mThread is not null and has been
-        // interrupted (see isInterrupted() helper method).
-        if (mThread == null)
-            return true;
-        else
-            if (mThread.isInterrupted())
-                return true;
-            else
-                return false;
+    @Override
+    public void onPriorityChanged() {
+        if (WorkerPool.get().remove(this)) {
+            WorkerPool.get().enqueue(this);
+        }
     }
 
     /**
-     * Reports if the download thread is currently running.
+     * Reports if the download is currently pending, paused, or running.
      *
-     * @return {@code true} if the thread is running; {@code false} if not.
+     * @return {@code true} if the download has not yet finished; {@code false}
+     * if not.
      */
     @Override
     public boolean isRunning() {
-        // Return 'true' if mThread is not null and is running
-        // (see isAlive() helper method)
-        if (mThread == null)
-            return false;
-        else
-            if (mThread.isAlive())
-                return true;
-            else
-                return false;
+        int state = mState;
+        return state == STATE_QUEUED
+                || state == STATE_PAUSED
+                || state == STATE_RUNNING;
     }
 
     /**
-     * Reports if the download thread has been cancelled.
+     * Reports if the download has been cancelled.
      *
-     * @return {@code true} if the thread has cancelled ; {@code false} if not.
+     * @return {@code true} if the download has cancelled ; {@code false} if
+     * not.
      */
     @Override
     public boolean isCancelled() {
-        // Return 'true' if mThread is not null and has been
-        // interrupted (see isInterrupted() helper method).
-        if (mThread == null)
-            return true; // No thread running
-        else
-            if (mThread.isInterrupted())
-                return true;
-            else
-                return false;
-
+        return mState == STATE_CANCELLED;
     }
 
     /**
-     * Reports if the download thread has completed.
+     * Reports if the download has completed.
      *
-     * @return {@code true} if the thread has successfully completed; {@code
+     * @return {@code true} if the download has successfully completed; {@code
      * false} if not.
      */
     @Override
     public boolean hasCompleted() {
-        // Return 'true' if mThread is not null and has successfully
-        // terminated (completed). To determine if a thread has terminated,
-        // you will need to use the Thread's getState() helper method and
-        // compare it to the the appropriate Thread.State enumerated value.
-        if (mThread == null)
-            return false;
-        else
-            if (mThread.getState().equals(Thread.State.TERMINATED) || !this.isRunning())
+        return mState == STATE_COMPLETED;
+    }
+
+    /**
+     * Returns the number of downloads waiting for a looper thread (the I/O
+     * stage queue depth of this downloader).
+     *
+     * @return The number of pending downloads.
+     */
+    public static int getQueueDepth() {
+        return WorkerPool.get().getPendingCount();
+    }
+
+    /**
+     * Called on a worker looper thread to perform the I/O stage of the
+     * download. The downloaded file is then handed off to the decode stage
+     * so that the looper can immediately start the next download. If the
+     * same resource is already being downloaded, the looper is released
+     * immediately and the I/O stage completes on the downloading thread.
+     */
+    private void run() {
+        try {
+            fetchInBackground();
+        } catch (RuntimeException e) {
+            // Never allow a failed download to terminate a shared looper.
+            Log.e(TAG, "Download failed: " + e);
+        }
+    }
+
+    /**
+     * Called once the I/O stage has completed to hand the downloaded file
+     * off to the decode stage.
+     *
+     * @param uri The downloaded file uri or null if the download failed.
+     */
+    @Override
+    protected void onFetchCompleted(Uri uri) {
+        if (mState == STATE_CANCELLED) {
+            return;
+        }
+
+        decodeInBackground(uri);
+    }
+
+    /**
+     * Called on the decode thread once the decode stage has completed to
+     * post the result to the main thread.
+     *
+     * @param bitmap The decoded bitmap or null if the download failed.
+     */
+    @Override
+    protected void onDecodeCompleted(Bitmap bitmap) {
+        if (mState == STATE_CANCELLED) {
+            releaseResource(bitmap);
+            return;
+        }
+
+        mState = STATE_COMPLETED;
+        deliverResult(bitmap);
+    }
+
+    /**
+     * Returns the priority of the attached request.
+     *
+     * @return The request priority.
+     */
+    private Priority getPriority() {
+        Request<Bitmap> request = getRequest();
+        return request != null ? request.getPriority() : Priority.NORMAL;
+    }
+
+    /**
+     * A fixed pool of HandlerThread loopers shared by all HaMeRDownloaders.
+     * All pending downloads are tracked so that the total number of queued
+     * messages is bounded and each download can be removed from the queue
+     * of the looper it was sent to.
+     */
+    private static final class WorkerPool implements Handler.Callback {
+        /**
+         * Number of looper threads.
+         */
+        private static final int THREAD_COUNT = 4;
+
+        /**
+         * Maximum number of pending (sent but not started) downloads. Any
+         * further downloads are deferred.
+         */
+        private static final int MAX_PENDING = 96;
+
+        /**
+         * Message "what" value used for download messages.
+         */
+        private static final int MSG_DOWNLOAD = 1;
+
+        /**
+         * The lazily created singleton pool.
+         */
+        private static WorkerPool sInstance;
+
+        /**
+         * Handlers for each looper thread.
+         */
+        private final Handler[] mWorkers = new Handler[THREAD_COUNT];
+
+        /**
+         * Number of pending downloads sent to each looper.
+         */
+        private final int[] mPendingCounts = new int[THREAD_COUNT];
+
+        /**
+         * All pending downloads in the order they were sent.
+         */
+        private final LinkedHashSet<HaMeRDownloader> mPending =
+                new LinkedHashSet<>();
+
+        /**
+         * Downloads waiting for the number of pending downloads to drop below
+         * MAX_PENDING, in the order they were deferred.
+         */
+        private final LinkedHashSet<HaMeRDownloader> mDeferred =
+                new LinkedHashSet<>();
+
+        /**
+         * Constructor starts all looper threads.
+         */
+        private WorkerPool() {
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                HandlerThread thread = new HandlerThread(
+                        TAG + "-" + i, Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                mWorkers[i] = new Handler(thread.getLooper(), this);
+            }
+        }
+
+        /**
+         * @return The singleton pool (created on first use).
+         */
+        static synchronized WorkerPool get() {
+            if (sInstance == null) {
+                sInstance = new WorkerPool();
+            }
+
+            return sInstance;
+        }
+
+        /**
+         * Sends a download to the looper with the fewest pending downloads.
+         * If MAX_PENDING downloads are already pending, a LOW priority
+         * download is deferred; otherwise the oldest pending download is
+         * withdrawn from its looper and deferred to make room. Deferred
+         * downloads are sent once a looper starts another download.
+         *
+         * @param downloader The download to send.
+         */
+        synchronized void enqueue(HaMeRDownloader downloader) {
+            if (mPending.size() >= MAX_PENDING) {
+                if (downloader.getPriority() == Priority.LOW) {
+                    mDeferred.add(downloader);
+                    return;
+                }
+
+                HaMeRDownloader eldest = mPending.iterator().next();
+                withdraw(eldest);
+                mDeferred.add(eldest);
+            }
+
+            send(downloader);
+        }
+
+        /**
+         * Sends a download to the looper with the fewest pending downloads.
+         * HIGH priority downloads are placed at the front of the looper's
+         * queue so that the most recently requested visible images are
+         * downloaded first.
+         *
+         * @param downloader The download to send.
+         */
+        private void send(HaMeRDownloader downloader) {
+            int index = 0;
+            for (int i = 1; i < THREAD_COUNT; i++) {
+                if (mPendingCounts[i] < mPendingCounts[index]) {
+                    index = i;
+                }
+            }
+
+            Handler worker = mWorkers[index];
+            Message message = worker.obtainMessage(MSG_DOWNLOAD, downloader);
+
+            mPending.add(downloader);
+            mPendingCounts[index]++;
+            downloader.mWorker = worker;
+
+            if (downloader.getPriority() == Priority.HIGH) {
+                worker.sendMessageAtFrontOfQueue(message);
+            } else {
+                worker.sendMessage(message);
+            }
+        }
+
+        /**
+         * Removes a pending or deferred download. A pending download is
+         * removed from its looper's message queue and the oldest deferred
+         * download (if any) is sent in its place.
+         *
+         * @param downloader The download to remove.
+         * @return {@code true} if the download was pending or deferred;
+         * {@code false} if it has already started or was never sent.
+         */
+        synchronized boolean remove(HaMeRDownloader downloader) {
+            if (mDeferred.remove(downloader)) {
                 return true;
-            else
+            }
+
+            if (!withdraw(downloader)) {
                 return false;
+            }
+
+            sendDeferred();
+            return true;
+        }
+
+        /**
+         * Removes a pending download from its looper's message queue.
+         *
+         * @param downloader The download to withdraw.
+         * @return {@code true} if the download was pending; {@code false} if
+         * not.
+         */
+        private boolean withdraw(HaMeRDownloader downloader) {
+            if (!mPending.remove(downloader)) {
+                return false;
+            }
+
+            downloader.mWorker.removeMessages(MSG_DOWNLOAD, downloader);
+            decrementPendingCount(downloader.mWorker);
+            return true;
+        }
+
+        /**
+         * Sends the oldest deferred download if fewer than MAX_PENDING
+         * downloads are pending.
+         */
+        private void sendDeferred() {
+            if (mDeferred.isEmpty() || mPending.size() >= MAX_PENDING) {
+                return;
+            }
+
+            Iterator<HaMeRDownloader> iterator = mDeferred.iterator();
+            HaMeRDownloader downloader = iterator.next();
+            iterator.remove();
+            send(downloader);
+        }
+
+        /**
+         * @return The number of pending and deferred downloads.
+         */
+        synchronized int getPendingCount() {
+            return mPending.size() + mDeferred.size();
+        }
+
+        /**
+         * Handles a download message on a looper thread.
+         *
+         * @param message A download message.
+         * @return Always {@code true}.
+         */
+        @Override
+        public boolean handleMessage(Message message) {
+            HaMeRDownloader downloader = (HaMeRDownloader) message.obj;
+
+            synchronized (this) {
+                // Ignore downloads that were removed after being sent.
+                if (!mPending.remove(downloader)) {
+                    return true;
+                }
+
+                decrementPendingCount(downloader.mWorker);
+                sendDeferred();
+                if (downloader.mState == STATE_CANCELLED) {
+                    return true;
+                }
+                downloader.mState = STATE_RUNNING;
+            }
+
+            downloader.run();
+            return true;
+        }
+
+        /**
+         * Decrements the pending download count of the passed looper.
+         *
+         * @param worker A looper handler.
+         */
+        private void decrementPendingCount(Handler worker) {
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                if (mWorkers[i] == worker) {
+                    mPendingCounts[i]--;
+                    return;
+                }
+            }
+        }
     }
 }
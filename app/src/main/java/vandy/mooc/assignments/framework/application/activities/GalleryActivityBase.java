@@ -35,6 +35,7 @@ import vandy.mooc.assignments.framework.application.fragments.RecyclerViewFragme
 import vandy.mooc.assignments.framework.downloader.DownloadManager;
 import vandy.mooc.assignments.framework.downloader.DownloadPolicy;
 import vandy.mooc.assignments.framework.downloader.Downloader;
+import vandy.mooc.assignments.framework.downloader.DownloaderFactory;
 import vandy.mooc.assignments.framework.downloader.NetworkPolicy;
 import vandy.mooc.assignments.framework.utils.AssignmentUtils;
 import vandy.mooc.assignments.framework.utils.Preconditions;
@@ -258,6 +259,24 @@ public abstract class GalleryActivityBase
         }
     }
 
+    /**
+     * Helper method that starts prefetching the passed image urls into the
+     * disk cache at low priority so that the downloads are already under way
+     * before the grid requests them. MainActivityBase has usually already
+     * started prefetching the same urls when the download button was
+     * pressed; the HttpDownloader coalesces the duplicate downloads and
+     * these prefetches keep the downloads going for the lifetime of the
+     * gallery. Assignment 1 does not download images so no prefetching is
+     * performed.
+     *
+     * @param urls The image urls that will be displayed.
+     */
+    protected final void prefetchItems(List<Uri> urls) {
+        if (AssignmentUtils.getAssignment(this) != 1) {
+            DownloadManager.prefetch(this, urls, ImageAdapter.REQUEST_TAG);
+        }
+    }
+
     /**
      * Helper method that forwards the downloader class registration request to
      * the DownloadManager.
@@ -283,8 +302,14 @@ public abstract class GalleryActivityBase
                     break;
                 case 2:
                     Log.i("TRACE", "HaMeRDownloader will be registered");
-                    DownloadManager.get()
-                            .registerDownloader(HaMeRDownloader.class);
+                    DownloadManager.get().registerDownloader(
+                            DownloadPolicy.HaMeRDownloader,
+                            new DownloaderFactory() {
+                                @Override
+                                public Downloader create() {
+                                    return new HaMeRDownloader();
+                                }
+                            });
                     break;
 //                case 3:
 //                    DownloadManager.get()
@@ -22,11 +22,13 @@ import java.util.Set;
 
 import vandy.mooc.assignments.R;
 import vandy.mooc.assignments.framework.application.adapters.BaseAdapter;
+import vandy.mooc.assignments.framework.application.adapters.ImageAdapter;
 import vandy.mooc.assignments.framework.application.adapters.UriAdapter;
 import vandy.mooc.assignments.framework.application.fragments.PagedFragment;
 import vandy.mooc.assignments.framework.application.fragments.RecyclerViewFragment;
 import vandy.mooc.assignments.framework.utils.AssignmentUtils;
 import vandy.mooc.assignments.framework.application.views.InputPanelView;
+import vandy.mooc.assignments.framework.downloader.DownloadManager;
 import vandy.mooc.assignments.framework.utils.UriUtils;
 
 /**
@@ -447,6 +449,12 @@ public abstract class MainActivityBase
         // adapter.
         ArrayList<Uri> inputUrls = mFragment.getItems();
 
+        // Start downloading the images into the disk cache while the gallery
+        // activity is being started (assignment 1 does not download images).
+        if (AssignmentUtils.getAssignment(this) != 1) {
+            DownloadManager.prefetch(this, inputUrls, ImageAdapter.REQUEST_TAG);
+        }
+
         // Control flow is based on assignment version.
         switch (AssignmentUtils.getAssignment(this)) {
             case 1:
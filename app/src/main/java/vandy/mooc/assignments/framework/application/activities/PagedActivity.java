@@ -154,6 +154,10 @@ public class PagedActivity
         // Create and initialize the view pager.
         mViewPager = (ViewPager) findViewById(R.id.view_pager);
         assert mViewPager != null;
+        // The view pager's default offscreen page limit retains one page on
+        // either side of the current page. These pages load their images in
+        // advance at LOW priority (see PagedFragment) so that swiping to them
+        // is immediate.
         mViewPager.setAdapter(mPagerAdapter);
         mViewPager.setPageTransformer(true, new ZoomOutPageTransformer());
 
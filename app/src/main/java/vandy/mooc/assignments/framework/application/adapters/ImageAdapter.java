@@ -2,11 +2,13 @@ package vandy.mooc.assignments.framework.application.adapters;
 
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.PorterDuff;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -16,6 +18,7 @@ import android.widget.ImageView;
 
 import vandy.mooc.assignments.R;
 import vandy.mooc.assignments.framework.downloader.DownloadManager;
+import vandy.mooc.assignments.framework.downloader.Priority;
 import vandy.mooc.assignments.framework.downloader.RequestListener;
 import vandy.mooc.assignments.framework.utils.Preconditions;
 
@@ -26,6 +29,43 @@ public class ImageAdapter
      */
     private static final String TAG = "ImageAdapter";
 
+    /**
+     * Tag used for all download requests made by this adapter. Prefetch
+     * requests must use the same tag to share the adapter's disk cache
+     * entries.
+     */
+    public static final String REQUEST_TAG =
+            ImageAdapter.class.getSimpleName();
+
+    /**
+     * The adapter positions of the first and last items that were most
+     * recently prioritized as visible.
+     */
+    private int mFirstVisiblePosition = RecyclerView.NO_POSITION;
+    private int mLastVisiblePosition = RecyclerView.NO_POSITION;
+
+    /**
+     * Scroll listener that re-prioritizes pending downloads whenever the
+     * visible range of the attached recycler view changes.
+     */
+    private final RecyclerView.OnScrollListener mScrollListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(RecyclerView recyclerView,
+                                       int dx,
+                                       int dy) {
+                    prioritizeVisibleItems(recyclerView);
+                }
+
+                @Override
+                public void onScrollStateChanged(RecyclerView recyclerView,
+                                                 int newState) {
+                    if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                        prioritizeVisibleItems(recyclerView);
+                    }
+                }
+            };
+
     /**
      * Constructor.
      *
@@ -54,6 +94,88 @@ public class ImageAdapter
         return new GridViewHolder(view);
     }
 
+    /**
+     * Installs the scroll listener used to prioritize visible items.
+     *
+     * @param recyclerView The RecyclerView instance which started observing
+     *                     this adapter.
+     */
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        recyclerView.addOnScrollListener(mScrollListener);
+    }
+
+    /**
+     * Removes the scroll listener installed in onAttachedToRecyclerView().
+     *
+     * @param recyclerView The RecyclerView instance which stopped observing
+     *                     this adapter.
+     */
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(mScrollListener);
+        mFirstVisiblePosition = RecyclerView.NO_POSITION;
+        mLastVisiblePosition = RecyclerView.NO_POSITION;
+        super.onDetachedFromRecyclerView(recyclerView);
+    }
+
+    /**
+     * Re-prioritizes pending downloads using the layout manager's visible
+     * range. Requests for attached items that are no longer visible are
+     * returned to NORMAL priority, while requests for visible items are given
+     * HIGH priority. Visible items are promoted from last to first so that
+     * the first visible item, which was promoted most recently, is started
+     * first. Since requests that are already HIGH are not re-queued, items
+     * that have just scrolled into view are started before items that were
+     * already visible.
+     *
+     * @param recyclerView The recycler view displaying this adapter's items.
+     */
+    public void prioritizeVisibleItems(RecyclerView recyclerView) {
+        if (!(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+            return;
+        }
+
+        LinearLayoutManager layoutManager =
+                (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+
+        if (first == mFirstVisiblePosition && last == mLastVisiblePosition) {
+            return;
+        }
+
+        mFirstVisiblePosition = first;
+        mLastVisiblePosition = last;
+
+        // Demote attached items that have left the visible range.
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder =
+                    recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            int position = holder.getAdapterPosition();
+            if (holder instanceof GridViewHolder
+                    && (position < first || position > last)) {
+                DownloadManager.get().setPriority(
+                        ((GridViewHolder) holder).mImageView, Priority.NORMAL);
+            }
+        }
+
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        // Promote the visible items.
+        for (int position = last; position >= first; position--) {
+            RecyclerView.ViewHolder holder =
+                    recyclerView.findViewHolderForAdapterPosition(position);
+            if (holder instanceof GridViewHolder) {
+                DownloadManager.get().setPriority(
+                        ((GridViewHolder) holder).mImageView, Priority.HIGH);
+            }
+        }
+    }
+
     /**
      * Called when a view created by this adapter has been recycled. Although
      * the downloader framework handles recycled views, we also need to catch
@@ -79,11 +201,18 @@ public class ImageAdapter
     }
 
     /**
-     * Removes all cached images and then forces full refresh.
+     * Removes all cached images and then forces full refresh once the
+     * (asynchronous) cache clearing operation has completed.
      */
     public void refresh() {
-        DownloadManager.clearCache(getClass().getSimpleName());
-        notifyDataSetChanged();
+        DownloadManager.clearCache(
+                REQUEST_TAG,
+                new DownloadManager.OnCacheClearedListener() {
+                    @Override
+                    public void onCacheCleared(String tag, int count) {
+                        notifyDataSetChanged();
+                    }
+                });
     }
 
     /**
@@ -116,8 +245,8 @@ public class ImageAdapter
                 .load(getItem(position))
                 .placeholder(R.drawable.placeholder)
                 .error(R.drawable.error)
-                .resize(140, 140)
-                .tag(getClass().getSimpleName())
+                .config(Bitmap.Config.RGB_565)
+                .tag(REQUEST_TAG)
                 .listen(new RequestListener() {
                     @Override
                     public void onResourceReady(Object resource) {
@@ -0,0 +1,209 @@
+package vandy.mooc.assignments.framework.application.adapters;
+
+import android.app.Activity;
+import android.net.Uri;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import vandy.mooc.assignments.framework.downloader.DownloadManager;
+import vandy.mooc.assignments.framework.downloader.Request;
+import vandy.mooc.assignments.framework.downloader.RequestState;
+
+/**
+ * A scroll listener that prefetches the images of the rows that are about to
+ * be exposed by a RecyclerView displaying an ImageAdapter. Whenever the list
+ * scrolls, low priority prefetch requests (using the same tag as the
+ * adapter's own requests) are issued for the next few rows past the viewport
+ * in the direction of the scroll. The number of rows scales with the scroll
+ * velocity. Prefetch requests for items that leave the preload window
+ * (viewport plus the rows ahead of it) are cancelled.
+ */
+public class ImagePreloader extends RecyclerView.OnScrollListener {
+    /**
+     * Number of rows preloaded when scrolling slowly.
+     */
+    private static final int MIN_PRELOAD_ROWS = 2;
+
+    /**
+     * Maximum number of rows preloaded when scrolling quickly.
+     */
+    private static final int MAX_PRELOAD_ROWS = 6;
+
+    /**
+     * The activity that determines the lifespan of the prefetch requests.
+     */
+    private final Activity mActivity;
+
+    /**
+     * The adapter whose items are preloaded.
+     */
+    private final ImageAdapter mAdapter;
+
+    /**
+     * Running (or completed) prefetch requests keyed by item uri.
+     */
+    private final Map<Uri, Request> mRequests = new HashMap<>();
+
+    /**
+     * The direction of the most recent scroll.
+     */
+    private boolean mScrollingForward = true;
+
+    /**
+     * Constructor.
+     *
+     * @param activity The activity displaying the adapter.
+     * @param adapter  The image adapter to preload.
+     */
+    public ImagePreloader(Activity activity, ImageAdapter adapter) {
+        mActivity = activity;
+        mAdapter = adapter;
+    }
+
+    /**
+     * Hook method called when the recycler view has scrolled.
+     *
+     * @param recyclerView The scrolled recycler view.
+     * @param dx           The horizontal scroll amount.
+     * @param dy           The vertical scroll amount.
+     */
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (!(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+            return;
+        }
+
+        LinearLayoutManager layoutManager =
+                (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        boolean vertical = layoutManager.canScrollVertically();
+        int delta = vertical ? dy : dx;
+        if (delta != 0) {
+            mScrollingForward = delta > 0;
+        }
+
+        int count = getPreloadRowCount(recyclerView, delta, vertical)
+                * getSpanCount(layoutManager);
+        int itemCount = mAdapter.getItemCount();
+        int from;
+        int to;
+
+        if (mScrollingForward) {
+            from = last + 1;
+            to = Math.min(itemCount - 1, last + count);
+        } else {
+            from = Math.max(0, first - count);
+            to = first - 1;
+        }
+
+        // The preload window includes the visible items so that their
+        // prefetches (which displayed requests may have attached to) are not
+        // cancelled when they scroll into view.
+        Set<Uri> window = new HashSet<>();
+        for (int i = Math.min(from, first); i <= Math.max(to, last); i++) {
+            window.add(mAdapter.getItem(i));
+        }
+
+        cancelOutside(window);
+
+        // Issue the prefetches nearest to the viewport first.
+        if (mScrollingForward) {
+            for (int i = from; i <= to; i++) {
+                prefetch(mAdapter.getItem(i));
+            }
+        } else {
+            for (int i = to; i >= from; i--) {
+                prefetch(mAdapter.getItem(i));
+            }
+        }
+    }
+
+    /**
+     * Cancels all running prefetch requests.
+     */
+    public void cancelAll() {
+        cancelOutside(new HashSet<Uri>());
+    }
+
+    /**
+     * Issues a prefetch request for the passed item unless one has already
+     * been issued.
+     *
+     * @param uri An item uri.
+     */
+    private void prefetch(Uri uri) {
+        if (!mRequests.containsKey(uri)) {
+            mRequests.put(uri,
+                          DownloadManager.with(mActivity)
+                                  .load(uri)
+                                  .tag(ImageAdapter.REQUEST_TAG)
+                                  .prefetch());
+        }
+    }
+
+    /**
+     * Cancels the prefetch requests for all items not in the passed window
+     * and forgets any requests that have finished outside of the window.
+     *
+     * @param window The items in the current preload window.
+     */
+    private void cancelOutside(Set<Uri> window) {
+        Iterator<Map.Entry<Uri, Request>> iterator =
+                mRequests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Uri, Request> entry = iterator.next();
+            if (!window.contains(entry.getKey())) {
+                Request request = entry.getValue();
+                if (request.getState() != RequestState.RECYCLED) {
+                    DownloadManager.get().cancelRequest(request);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Calculates the number of rows to preload from the scroll velocity
+     * (measured in item heights per scroll event).
+     *
+     * @param recyclerView The recycler view.
+     * @param delta        The scroll amount of the last scroll event.
+     * @param vertical     {@code true} if the list scrolls vertically.
+     * @return The number of rows to preload.
+     */
+    private static int getPreloadRowCount(RecyclerView recyclerView,
+                                          int delta,
+                                          boolean vertical) {
+        View child = recyclerView.getChildAt(0);
+        int itemExtent = child != null
+                         ? Math.max(1, vertical
+                                       ? child.getHeight()
+                                       : child.getWidth())
+                         : Integer.MAX_VALUE;
+        return Math.min(MAX_PRELOAD_ROWS,
+                        MIN_PRELOAD_ROWS + Math.abs(delta) / itemExtent);
+    }
+
+    /**
+     * @param layoutManager A linear layout manager.
+     * @return The number of items in each row.
+     */
+    private static int getSpanCount(LinearLayoutManager layoutManager) {
+        return layoutManager instanceof GridLayoutManager
+               ? ((GridLayoutManager) layoutManager).getSpanCount()
+               : 1;
+    }
+}
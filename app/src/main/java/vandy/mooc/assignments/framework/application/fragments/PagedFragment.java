@@ -7,22 +7,44 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.view.ViewCompat;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import java.io.File;
+
 import vandy.mooc.assignments.framework.application.DownloadApplication;
 import vandy.mooc.assignments.R;
+import vandy.mooc.assignments.framework.application.adapters.ImageAdapter;
+import vandy.mooc.assignments.framework.application.views.TiledImageView;
 import vandy.mooc.assignments.framework.downloader.DownloadManager;
+import vandy.mooc.assignments.framework.downloader.Priority;
 import vandy.mooc.assignments.framework.downloader.RequestListener;
+import vandy.mooc.assignments.framework.downloader.ThumbnailListener;
 import vandy.mooc.assignments.framework.utils.UriUtils;
+import vandy.mooc.assignments.framework.utils.ViewUtils;
 
 /**
  * A generic details fragment whose main data element is a resource uri. This
  * class along with the parent PagedActivity provide shared element transition
  * animation for a single image.
  * <p>
+ * Images are decoded no larger than the display so that a high resolution
+ * source never produces a full resolution bitmap. Since the parent
+ * ViewPager also creates the adjacent pages, only the image of the page
+ * that is visible to the user is loaded at HIGH priority; the adjacent
+ * pages are loaded (and decoded into the memory cache) at LOW priority.
+ * <p>
+ * Images are requested with the same tag as the gallery grid so that an
+ * image opened from the grid is not downloaded again and the grid's cached
+ * bitmap is displayed as a thumbnail until the full size image is ready.
+ * <p>
+ * When the layout image view is a TiledImageView, very large images can be
+ * zoomed to full detail by decoding only the visible region of the cached
+ * source file.
+ * <p>
  * {@link Fragment} subclass. Use the {@link PagedFragment#newInstance} factory
  * method to create an instance of this fragment.
  */
@@ -35,6 +57,12 @@ public class PagedFragment extends Fragment {
     public static final String ARG_RESOURCE_URI = "resource_uri";
     public static final String ARG_POSITION = "position";
 
+    /**
+     * The size of the thumbnail displayed (if the image has already been
+     * downloaded) while the full size image is being loaded.
+     */
+    private static final int THUMBNAIL_SIZE = 140;
+
     /**
      * The data source uri to display in this fragment. This uri will depend on
      * the application context. The default implementation assumes that this uri
@@ -162,17 +190,38 @@ public class PagedFragment extends Fragment {
      *
      * @param uri The image URL to load (may be local or remote).
      */
-    private void loadImage(Uri uri) {
-        // Asynchronously load the bitmap.
+    private void loadImage(final Uri uri) {
+        // Never decode a bitmap larger than the display. The size does not
+        // depend on the view so that the request is not deferred until the
+        // view is laid out and so that all pages share the same memory cache
+        // key size.
+        DisplayMetrics metrics = ViewUtils.getDisplayMetrics(getActivity());
+
+        // Asynchronously load the bitmap. The shared element transition is
+        // started as soon as a cached thumbnail is displayed rather than
+        // waiting for the full size image.
         DownloadManager.with(getActivity())
                 .load(uri)
-                .listen(new RequestListener<Bitmap>() {
+                .resize(metrics.widthPixels, metrics.heightPixels)
+                .thumbnail(THUMBNAIL_SIZE, THUMBNAIL_SIZE)
+                .tag(ImageAdapter.REQUEST_TAG)
+                .priority(getLoadPriority())
+                .listen(new ThumbnailListener<Bitmap>() {
+                    @Override
+                    public void onThumbnailReady(Bitmap thumbnail) {
+                        if (mPagedFragmentListener != null) {
+                            mPagedFragmentListener.onSharedElementReady(
+                                    mImageView, true);
+                        }
+                    }
+
                     @Override
                     public void onResourceReady(Bitmap resource) {
                         if (mPagedFragmentListener != null) {
                             mPagedFragmentListener.onSharedElementReady(
                                     mImageView, true);
                         }
+                        loadTileSource(uri);
                     }
 
                     @Override
@@ -186,6 +235,60 @@ public class PagedFragment extends Fragment {
                 .into(mImageView);
     }
 
+    /**
+     * Passes the cached source file of the displayed image to a
+     * TiledImageView so that very large images can be zoomed and displayed
+     * at full detail. Since the image has already been downloaded, the
+     * fetch request completes from the disk cache.
+     *
+     * @param uri The image URL.
+     */
+    private void loadTileSource(Uri uri) {
+        if (!(mImageView instanceof TiledImageView)) {
+            return;
+        }
+
+        DownloadManager.with(getActivity())
+                .load(uri)
+                .tag(ImageAdapter.REQUEST_TAG)
+                .fetch(new RequestListener<Uri>() {
+                    @Override
+                    public void onResourceReady(Uri file) {
+                        if (mImageView instanceof TiledImageView) {
+                            ((TiledImageView) mImageView).setTileSource(
+                                    new File(UriUtils.getPathNameFromFileUri(
+                                            file)));
+                        }
+                    }
+
+                    @Override
+                    public void onRequestFailed() {
+                    }
+                });
+    }
+
+    /**
+     * Hook method called by the ViewPager adapter when this page becomes (or
+     * stops being) the page displayed to the user. Updates the priority of
+     * a running image load accordingly.
+     *
+     * @param isVisibleToUser {@code true} if this page is now displayed.
+     */
+    @Override
+    public void setUserVisibleHint(boolean isVisibleToUser) {
+        super.setUserVisibleHint(isVisibleToUser);
+        if (mImageView != null) {
+            DownloadManager.get().setPriority(mImageView, getLoadPriority());
+        }
+    }
+
+    /**
+     * @return The image load priority for the current page visibility.
+     */
+    private Priority getLoadPriority() {
+        return getUserVisibleHint() ? Priority.HIGH : Priority.LOW;
+    }
+
     /**
      * Image load callbacks are optional and can be installed using this
      * method.
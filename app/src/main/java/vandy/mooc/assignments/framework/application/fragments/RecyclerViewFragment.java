@@ -21,6 +21,8 @@ import java.util.List;
 import vandy.mooc.assignments.framework.application.DownloadApplication;
 import vandy.mooc.assignments.R;
 import vandy.mooc.assignments.framework.application.adapters.BaseAdapter;
+import vandy.mooc.assignments.framework.application.adapters.ImageAdapter;
+import vandy.mooc.assignments.framework.application.adapters.ImagePreloader;
 import vandy.mooc.assignments.framework.downloader.DownloadManager;
 
 /**
@@ -63,6 +65,34 @@ public class RecyclerViewFragment
      */
     private OnFragmentListener mListener;
 
+    /**
+     * Pauses the adapter's download requests while a fling is settling and
+     * resumes them as soon as the list is no longer settling so that no
+     * network or CPU time is spent on images that are flown past.
+     */
+    private final RecyclerView.OnScrollListener mFlingListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrollStateChanged(RecyclerView recyclerView,
+                                                 int newState) {
+                    if (mAdapter == null) {
+                        return;
+                    }
+
+                    if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+                        DownloadManager.get().pauseTag(getAdapterTag());
+                    } else {
+                        DownloadManager.get().resumeTag(getAdapterTag());
+                    }
+                }
+            };
+
+    /**
+     * Scroll listener that prefetches the images of the rows about to be
+     * scrolled into view (only used with an ImageAdapter).
+     */
+    private ImagePreloader mPreloader;
+
     /**
      * Required constructor definition for all fragments.
      */
@@ -117,6 +147,26 @@ public class RecyclerViewFragment
         mListener = null;
     }
 
+    /**
+     * Lifecycle hook method called when the fragment view is destroyed. Makes
+     * sure that the adapter's requests are not left paused if the view is
+     * destroyed during a fling.
+     */
+    @Override
+    public void onDestroyView() {
+        if (mRecyclerView != null) {
+            mRecyclerView.removeOnScrollListener(mFlingListener);
+        }
+
+        removePreloader();
+
+        if (mAdapter != null) {
+            DownloadManager.get().resumeTag(getAdapterTag());
+        }
+
+        super.onDestroyView();
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         // Save the output URL list in the received bundle.
@@ -181,10 +231,37 @@ public class RecyclerViewFragment
         // Use a vertical linear layout manager.
         mRecyclerView.setLayoutManager(layoutManager);
 
+        // Pause downloads during flings (removing first in case the views
+        // are initialized more than once).
+        mRecyclerView.removeOnScrollListener(mFlingListener);
+        mRecyclerView.addOnScrollListener(mFlingListener);
+
+        // Prefetch the images of the rows about to be scrolled into view.
+        removePreloader();
+        if (adapter instanceof ImageAdapter) {
+            mPreloader = new ImagePreloader(getActivity(),
+                                            (ImageAdapter) adapter);
+            mRecyclerView.addOnScrollListener(mPreloader);
+        }
+
         // Set the RecyclerView to use the passed adapter.
         setAdapter(adapter);
     }
 
+    /**
+     * Removes the scroll preloader (if any) and cancels its pending
+     * prefetch requests.
+     */
+    private void removePreloader() {
+        if (mPreloader != null) {
+            if (mRecyclerView != null) {
+                mRecyclerView.removeOnScrollListener(mPreloader);
+            }
+            mPreloader.cancelAll();
+            mPreloader = null;
+        }
+    }
+
     /**
      * Sets the RecyclerView adapter to the passed value.
      *
@@ -538,8 +615,27 @@ public class RecyclerViewFragment
      * Forward refresh request to adapter.
      */
     public void refresh() {
-        DownloadManager.clearCache(mAdapter.getClass().getSimpleName());
-        mAdapter.notifyDataSetChanged();
+        DownloadManager.clearCache(
+                getAdapterTag(),
+                new DownloadManager.OnCacheClearedListener() {
+                    @Override
+                    public void onCacheCleared(String tag, int count) {
+                        // The fragment may have been destroyed while the
+                        // cache was being cleared.
+                        if (isAdded()) {
+                            mAdapter.notifyDataSetChanged();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Returns the tag used by the adapter for all of its download requests.
+     *
+     * @return The adapter request tag.
+     */
+    private String getAdapterTag() {
+        return mAdapter.getClass().getSimpleName();
     }
 
     /**
@@ -0,0 +1,699 @@
+package vandy.mooc.assignments.framework.application.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.ViewParent;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An image view that can display very large images (panoramas, scans, etc.)
+ * at full detail without ever decoding the whole image. The image view
+ * displays a normal (display sized) bitmap as usual. Once a tile source (the
+ * cached source file) is set and the source is much larger than the display,
+ * the view supports pinch and double tap zooming and panning. While zoomed,
+ * only the visible region of the source is decoded with a
+ * BitmapRegionDecoder, in fixed size tiles at the sample size that matches
+ * the current zoom. Tiles are decoded on a background thread and kept in a
+ * small LRU cache shared by all instances so that memory use is bounded no
+ * matter how large the source is or how many pages hold a tiled view.
+ */
+public class TiledImageView extends ImageView {
+    /**
+     * Logging tag.
+     */
+    private static final String TAG = "TiledImageView";
+
+    /**
+     * The size (in decoded pixels) of each tile.
+     */
+    private static final int TILE_SIZE = 512;
+
+    /**
+     * The maximum number of bytes held by the shared tile cache.
+     */
+    private static final int TILE_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Tiled mode is only used for sources that are at least this many times
+     * larger than the display in either dimension.
+     */
+    private static final int LARGE_IMAGE_FACTOR = 2;
+
+    /**
+     * The maximum zoom factor relative to fitting the whole image.
+     */
+    private static final float MAX_ZOOM = 8f;
+
+    /**
+     * The zoom factor toggled by a double tap.
+     */
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+
+    /**
+     * Posts tile thread results to the main thread (View.post() is not used
+     * since it may never run for a detached view).
+     */
+    private static final Handler MAIN_HANDLER =
+            new Handler(Looper.getMainLooper());
+
+    /**
+     * Recently decoded tiles of all instances keyed by tile source id,
+     * sample size, and tile position (only accessed from the main thread).
+     * A single cache is shared so that the neighbouring pages kept by a
+     * ViewPager do not each hold a full tile cache.
+     */
+    private static final LruCache<String, Bitmap> TILES =
+            new LruCache<String, Bitmap>(TILE_CACHE_SIZE) {
+                @Override
+                protected int sizeOf(String key, Bitmap tile) {
+                    return tile.getByteCount();
+                }
+            };
+
+    /**
+     * Source of unique tile source ids (only accessed from the main thread).
+     */
+    private static int sNextSourceId;
+
+    /**
+     * The id of the current tile source (the tile key prefix).
+     */
+    private int mSourceId;
+
+    /**
+     * The keys of the tiles that this view has added to the shared cache.
+     */
+    private final Set<String> mCachedTiles = new HashSet<>();
+
+    /**
+     * Tiles that have been submitted for decoding.
+     */
+    private final Set<String> mPendingTiles = new HashSet<>();
+
+    /**
+     * The tiles needed by the most recent draw. Decodes of tiles that have
+     * since scrolled out of view are skipped. A concurrent set since it is
+     * read by the tile thread while the main thread updates it in place.
+     */
+    private final Set<String> mVisibleTiles =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * The tiles found by the current draw (reused by each draw).
+     */
+    private final Set<String> mDrawnTiles = new HashSet<>();
+
+    /**
+     * Maps source pixels to view pixels (see updateMatrix()).
+     */
+    private final Matrix mMatrix = new Matrix();
+
+    /**
+     * Reusable matrices that map view pixels to source pixels and the
+     * display sized bitmap to view pixels.
+     */
+    private final Matrix mInverseMatrix = new Matrix();
+    private final Matrix mImageMatrix = new Matrix();
+
+    /**
+     * Reusable drawing rectangles.
+     */
+    private final RectF mViewRect = new RectF();
+    private final RectF mSourceRect = new RectF();
+    private final RectF mTileRect = new RectF();
+    private final Rect mTileRegion = new Rect();
+
+    /**
+     * Paint used to draw tiles.
+     */
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * Gesture detectors for zooming and panning.
+     */
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+
+    /**
+     * The region decoder of the current tile source (null when tiled mode
+     * is not active).
+     */
+    private BitmapRegionDecoder mDecoder;
+
+    /**
+     * The dimensions of the current tile source.
+     */
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    /**
+     * Incremented whenever the tile source changes so that results for a
+     * previous source are discarded.
+     */
+    private int mGeneration;
+
+    /**
+     * The scale type set before tiled mode was activated.
+     */
+    private ScaleType mDefaultScaleType;
+
+    /**
+     * The current zoom factor (1 displays the whole image).
+     */
+    private float mZoom = 1f;
+
+    /**
+     * The current horizontal and vertical offsets of the zoomed image.
+     */
+    private float mOffsetX;
+    private float mOffsetY;
+
+    /**
+     * Constructors.
+     */
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        mGestureDetector = new GestureDetector(context, new GestureListener());
+    }
+
+    /**
+     * Sets the file from which tiles are decoded or clears the current tile
+     * source if null is passed. The file is opened on a background thread.
+     * If the image is not much larger than the display, tiled mode is not
+     * activated and the view behaves like a normal image view.
+     *
+     * @param file A cached image file or null.
+     */
+    @MainThread
+    public void setTileSource(@Nullable final File file) {
+        final int generation = ++mGeneration;
+        releaseDecoder();
+
+        if (file == null) {
+            return;
+        }
+
+        final DisplayMetrics metrics = getResources().getDisplayMetrics();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final BitmapRegionDecoder decoder =
+                        openDecoder(file, metrics);
+                if (decoder == null) {
+                    return;
+                }
+
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            onDecoderReady(decoder);
+                        } else {
+                            recycleDecoder(decoder);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Opens a region decoder for the passed file if the image is large
+     * enough to require tiled mode.
+     *
+     * @param file    An image file.
+     * @param metrics The display metrics.
+     * @return A region decoder or null if the image is not large or could
+     * not be opened.
+     */
+    @WorkerThread
+    @Nullable
+    private static BitmapRegionDecoder openDecoder(
+            File file, DisplayMetrics metrics) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        if (options.outWidth < metrics.widthPixels * LARGE_IMAGE_FACTOR
+                && options.outHeight
+                < metrics.heightPixels * LARGE_IMAGE_FACTOR) {
+            return null;
+        }
+
+        try {
+            return BitmapRegionDecoder.newInstance(file.getPath(), false);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to open tile source: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Activates tiled mode once the region decoder has been opened.
+     *
+     * @param decoder The region decoder of the new tile source.
+     */
+    @MainThread
+    private void onDecoderReady(BitmapRegionDecoder decoder) {
+        mDecoder = decoder;
+        mSourceId = ++sNextSourceId;
+        mSourceWidth = decoder.getWidth();
+        mSourceHeight = decoder.getHeight();
+        mZoom = 1f;
+        mDefaultScaleType = getScaleType();
+        setScaleType(ScaleType.MATRIX);
+        updateMatrix();
+        invalidate();
+    }
+
+    /**
+     * Leaves tiled mode and releases the region decoder and all tiles.
+     */
+    @MainThread
+    private void releaseDecoder() {
+        for (String key : mCachedTiles) {
+            TILES.remove(key);
+        }
+        mCachedTiles.clear();
+        mPendingTiles.clear();
+        mVisibleTiles.clear();
+
+        if (mDecoder != null) {
+            recycleDecoder(mDecoder);
+            mDecoder = null;
+            mZoom = 1f;
+            setScaleType(mDefaultScaleType);
+        }
+    }
+
+    /**
+     * Recycles a region decoder on the tile thread so that it is never
+     * recycled while a tile is being decoded.
+     *
+     * @param decoder A region decoder.
+     */
+    private static void recycleDecoder(final BitmapRegionDecoder decoder) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                decoder.recycle();
+            }
+        });
+    }
+
+    /**
+     * Recomputes the image matrix when a new image is displayed.
+     *
+     * @param drawable The new drawable.
+     */
+    @Override
+    public void setImageDrawable(@Nullable Drawable drawable) {
+        super.setImageDrawable(drawable);
+        if (mDecoder != null) {
+            updateMatrix();
+        }
+    }
+
+    /**
+     * Recomputes the image matrix when the view size changes.
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mDecoder != null) {
+            updateMatrix();
+        }
+    }
+
+    /**
+     * Releases the tile source when the view is detached.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        setTileSource(null);
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Handles zoom and pan gestures in tiled mode. While zoomed, the parent
+     * (normally a ViewPager) is not allowed to intercept touch events so
+     * that panning does not change the page.
+     *
+     * @param event The motion event.
+     * @return {@code true} if the event was handled.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mDecoder == null) {
+            return super.onTouchEvent(event);
+        }
+
+        mScaleDetector.onTouchEvent(event);
+        mGestureDetector.onTouchEvent(event);
+
+        ViewParent parent = getParent();
+        if (parent != null) {
+            parent.requestDisallowInterceptTouchEvent(
+                    mZoom > 1f || mScaleDetector.isInProgress());
+        }
+
+        return true;
+    }
+
+    /**
+     * Draws the display sized image and, when zoomed, the visible tiles on
+     * top of it.
+     *
+     * @param canvas The canvas.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mDecoder == null || mZoom <= 1f) {
+            return;
+        }
+
+        float scale = getScale();
+        int sampleSize = getSampleSize(scale);
+
+        // Nothing to add if the displayed bitmap already has enough detail.
+        Drawable drawable = getDrawable();
+        if (drawable != null
+                && drawable.getIntrinsicWidth() >= mSourceWidth / sampleSize) {
+            return;
+        }
+
+        // Determine the visible source region.
+        mMatrix.invert(mInverseMatrix);
+        mViewRect.set(0, 0, getWidth(), getHeight());
+        mInverseMatrix.mapRect(mSourceRect, mViewRect);
+
+        int tileSourceSize = TILE_SIZE * sampleSize;
+        int firstColumn =
+                Math.max(0, (int) (mSourceRect.left / tileSourceSize));
+        int lastColumn = Math.min((mSourceWidth - 1) / tileSourceSize,
+                                  (int) (mSourceRect.right / tileSourceSize));
+        int firstRow = Math.max(0, (int) (mSourceRect.top / tileSourceSize));
+        int lastRow = Math.min((mSourceHeight - 1) / tileSourceSize,
+                               (int) (mSourceRect.bottom / tileSourceSize));
+
+        mDrawnTiles.clear();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                mTileRegion.set(
+                        column * tileSourceSize,
+                        row * tileSourceSize,
+                        Math.min(mSourceWidth, (column + 1) * tileSourceSize),
+                        Math.min(mSourceHeight, (row + 1) * tileSourceSize));
+                String key = getTileKey(column, row, sampleSize);
+                mDrawnTiles.add(key);
+
+                Bitmap tile = TILES.get(key);
+                if (tile != null) {
+                    mTileRect.set(mTileRegion);
+                    mMatrix.mapRect(mTileRect);
+                    canvas.drawBitmap(tile, null, mTileRect, mPaint);
+                } else {
+                    // A tile must be marked visible before its decode is
+                    // requested since the tile thread skips tiles that are
+                    // not in the visible set.
+                    mVisibleTiles.add(key);
+                    requestTile(key, mTileRegion, sampleSize);
+                }
+            }
+        }
+
+        // Tiles that are still visible are never removed from the visible
+        // set so that their pending decodes are not skipped.
+        mVisibleTiles.retainAll(mDrawnTiles);
+    }
+
+    /**
+     * Returns the shared cache key of a tile of the current tile source.
+     *
+     * @param column     The tile column.
+     * @param row        The tile row.
+     * @param sampleSize The tile sample size.
+     * @return The tile key.
+     */
+    private String getTileKey(int column, int row, int sampleSize) {
+        return mSourceId + "/" + sampleSize + "/" + column + "/" + row;
+    }
+
+    /**
+     * Submits a tile for decoding on the tile thread unless it has already
+     * been submitted.
+     *
+     * @param key        The tile key.
+     * @param tileRegion The source region of the tile (copied if the tile is
+     *                   submitted).
+     * @param sampleSize The sample size used to decode the tile.
+     */
+    @MainThread
+    private void requestTile(final String key,
+                             Rect tileRegion,
+                             final int sampleSize) {
+        if (!mPendingTiles.add(key)) {
+            return;
+        }
+
+        final Rect region = new Rect(tileRegion);
+        final BitmapRegionDecoder decoder = mDecoder;
+        final int generation = mGeneration;
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap tile = null;
+
+                // Skip tiles that are no longer visible.
+                if (mVisibleTiles.contains(key) && !decoder.isRecycled()) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = sampleSize;
+                    try {
+                        tile = decoder.decodeRegion(region, options);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Unable to decode tile " + key + ": " + e);
+                    }
+                }
+
+                final Bitmap result = tile;
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+
+                        mPendingTiles.remove(key);
+                        if (result != null) {
+                            TILES.put(key, result);
+                            mCachedTiles.add(key);
+                            invalidate();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Computes the image matrix that draws the display sized bitmap and the
+     * source to view matrix used to position tiles from the current zoom
+     * and offsets. At a zoom factor of 1, the whole image is centered in the
+     * view; the offsets are constrained so that a zoomed image always covers
+     * the view.
+     */
+    @MainThread
+    private void updateMatrix() {
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        if (viewWidth == 0 || viewHeight == 0) {
+            return;
+        }
+
+        float scale = getScale();
+        float width = mSourceWidth * scale;
+        float height = mSourceHeight * scale;
+
+        mOffsetX = width <= viewWidth
+                   ? (viewWidth - width) / 2
+                   : Math.min(0, Math.max(viewWidth - width, mOffsetX));
+        mOffsetY = height <= viewHeight
+                   ? (viewHeight - height) / 2
+                   : Math.min(0, Math.max(viewHeight - height, mOffsetY));
+
+        mMatrix.setScale(scale, scale);
+        mMatrix.postTranslate(mOffsetX, mOffsetY);
+
+        // The displayed bitmap is a down sampled copy of the source (the
+        // image view copies the passed matrix).
+        mImageMatrix.set(mMatrix);
+        Drawable drawable = getDrawable();
+        if (drawable != null
+                && drawable.getIntrinsicWidth() > 0
+                && drawable.getIntrinsicHeight() > 0) {
+            mImageMatrix.preScale(
+                    (float) mSourceWidth / drawable.getIntrinsicWidth(),
+                    (float) mSourceHeight / drawable.getIntrinsicHeight());
+        }
+        setImageMatrix(mImageMatrix);
+        invalidate();
+    }
+
+    /**
+     * @return The current number of view pixels per source pixel.
+     */
+    private float getScale() {
+        float fit = Math.min((float) getWidth() / mSourceWidth,
+                             (float) getHeight() / mSourceHeight);
+        return fit * mZoom;
+    }
+
+    /**
+     * Returns the largest power of 2 sample size that still provides at
+     * least one decoded pixel per view pixel at the passed scale.
+     *
+     * @param scale The number of view pixels per source pixel.
+     * @return A sample size.
+     */
+    private static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Changes the zoom factor keeping the passed view point fixed.
+     *
+     * @param zoom   The new zoom factor.
+     * @param focusX The horizontal focus point.
+     * @param focusY The vertical focus point.
+     */
+    @MainThread
+    private void zoomTo(float zoom, float focusX, float focusY) {
+        float oldScale = getScale();
+        mZoom = Math.max(1f, Math.min(MAX_ZOOM, zoom));
+        float ratio = getScale() / oldScale;
+        mOffsetX = focusX - (focusX - mOffsetX) * ratio;
+        mOffsetY = focusY - (focusY - mOffsetY) * ratio;
+        updateMatrix();
+    }
+
+    /**
+     * Runs a task on the shared tile decoding thread.
+     *
+     * @param task A task.
+     */
+    private static void execute(Runnable task) {
+        try {
+            TileExecutor.INSTANCE.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Tile task rejected: " + e);
+        }
+    }
+
+    /**
+     * Lazily created single thread executor shared by all tiled views.
+     * Region decodes are serialized so that a decoder is never recycled
+     * while it is being used.
+     */
+    private static final class TileExecutor {
+        static final ExecutorService INSTANCE =
+                Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Handles pinch zooming.
+     */
+    private final class ScaleListener
+            extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            zoomTo(mZoom * detector.getScaleFactor(),
+                   detector.getFocusX(),
+                   detector.getFocusY());
+            return true;
+        }
+    }
+
+    /**
+     * Handles panning and double tap zooming.
+     */
+    private final class GestureListener
+            extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDown(MotionEvent event) {
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1,
+                                MotionEvent e2,
+                                float distanceX,
+                                float distanceY) {
+            if (mZoom > 1f) {
+                mOffsetX -= distanceX;
+                mOffsetY -= distanceY;
+                updateMatrix();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(MotionEvent event) {
+            zoomTo(mZoom > 1f ? 1f : DOUBLE_TAP_ZOOM,
+                   event.getX(),
+                   event.getY());
+            return true;
+        }
+
+        @Override
+        public boolean onSingleTapConfirmed(MotionEvent event) {
+            return performClick();
+        }
+    }
+}
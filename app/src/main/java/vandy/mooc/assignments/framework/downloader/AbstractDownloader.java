@@ -1,11 +1,14 @@
 package vandy.mooc.assignments.framework.downloader;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.support.annotation.MainThread;
 import android.support.annotation.WorkerThread;
 import android.util.Log;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import vandy.mooc.assignments.framework.utils.Utils;
 
 /**
@@ -25,7 +28,19 @@ public abstract class AbstractDownloader<R> implements Downloader<R> {
     /**
      * The download request that is being processed.
      */
-    private Request<R> mRequest;
+    private volatile Request<R> mRequest;
+
+    /**
+     * Set while a downloaded file is waiting for or being processed by the
+     * decode stage.
+     */
+    private volatile boolean mDecoding;
+
+    /**
+     * The download policy this downloader was acquired for by the
+     * DownloadManager (used to return it to the matching downloader pool).
+     */
+    DownloadPolicy mDownloadPolicy;
 
     /**
      * Constructor that supports newInstance() creation (assignments only).
@@ -52,13 +67,49 @@ public abstract class AbstractDownloader<R> implements Downloader<R> {
         mRequest = request;
     }
 
+    /**
+     * Called by the DownloadManager before a downloader that has finished
+     * its request is returned to the downloader pool. Subclasses that hold
+     * per-download state must override this method to restore it to its
+     * initial state and must call this super implementation.
+     */
+    @MainThread
+    protected void reset() {
+        mRequest = null;
+        mDecoding = false;
+    }
+
+    /**
+     * Pauses the download. This default implementation does nothing so
+     * that the download simply continues to run.
+     */
+    @Override
+    public void pause() {
+    }
+
+    /**
+     * Resumes a paused download. This default implementation does nothing.
+     */
+    @Override
+    public void resume() {
+    }
+
+    /**
+     * Called when the request priority has changed. Implementations that
+     * queue downloads should override this method to re-queue a pending
+     * download; this default implementation does nothing.
+     */
+    @Override
+    public void onPriorityChanged() {
+    }
+
     /**
      * Helper that returns the context for this download.
      *
-     * @return The download context.
+     * @return The download context or null if it has been garbage collected.
      */
     public Context getContext() {
-        return mRequest.mContext;
+        return mRequest.getContext();
     }
 
     /**
@@ -79,6 +130,143 @@ public abstract class AbstractDownloader<R> implements Downloader<R> {
         return decode(HttpDownloader.download(mRequest));
     }
 
+    /**
+     * Performs only the I/O stage of the download pipeline: the request's
+     * URL data source is downloaded (or retrieved from the cache) to a local
+     * file without decoding it.
+     *
+     * @return The local file uri or null if the download failed or the
+     * request was cancelled.
+     */
+    @WorkerThread
+    protected Uri fetch() {
+        Utils.assertBackgroundThread();
+        Request<R> request = mRequest;
+        return request != null ? HttpDownloader.download(request) : null;
+    }
+
+    /**
+     * Performs the I/O stage of the download pipeline without blocking the
+     * calling thread on a duplicate download: if the same resource is
+     * already being downloaded for another request, this method returns
+     * immediately and onFetchCompleted() is later called on the thread
+     * performing that download. Otherwise, the download is performed on the
+     * calling thread and onFetchCompleted() is called before this method
+     * returns.
+     */
+    @WorkerThread
+    protected void fetchInBackground() {
+        Utils.assertBackgroundThread();
+        Request<R> request = mRequest;
+        if (request == null) {
+            onFetchCompleted(null);
+            return;
+        }
+
+        HttpDownloader.download(request, new HttpDownloader.Callback() {
+            @Override
+            public void onDownloadCompleted(Uri uri) {
+                onFetchCompleted(uri);
+            }
+        });
+    }
+
+    /**
+     * Called on a background thread once fetchInBackground() has completed.
+     * This default implementation passes the file to decodeInBackground().
+     *
+     * @param uri The fetched file uri or null.
+     */
+    @WorkerThread
+    protected void onFetchCompleted(Uri uri) {
+        decodeInBackground(uri);
+    }
+
+    /**
+     * Hands a file produced by fetch() off to the decode stage executor so
+     * that the calling I/O thread is immediately available for the next
+     * download. Once decoded, the resource is passed to onDecodeCompleted()
+     * on the decode thread. If no file was fetched, onDecodeCompleted() is
+     * called immediately with a null resource.
+     *
+     * @param uri The fetched file uri or null.
+     */
+    @WorkerThread
+    protected void decodeInBackground(final Uri uri) {
+        if (uri == null) {
+            onDecodeCompleted(null);
+            return;
+        }
+
+        mDecoding = true;
+        try {
+            DownloadManager.get().mDecodeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    R resource;
+                    try {
+                        resource = decode(uri);
+                    } finally {
+                        // Cleared before delivery since this downloader may
+                        // be reused as soon as the result has been posted.
+                        mDecoding = false;
+                    }
+                    onDecodeCompleted(resource);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mDecoding = false;
+            onDecodeCompleted(null);
+        }
+    }
+
+    /**
+     * Called on the decode thread once the decode stage has completed. This
+     * default implementation delivers the resource by calling
+     * deliverResult().
+     *
+     * @param resource The decoded resource or null if the download or decode
+     *                 operation failed.
+     */
+    @WorkerThread
+    protected void onDecodeCompleted(R resource) {
+        deliverResult(resource);
+    }
+
+    /**
+     * Delivers a result to postResult() on the main thread. Results are
+     * batched and delivered once per display frame within a fixed time budget
+     * (see FrameDispatcher) rather than being posted as individual main
+     * thread messages. This method can be called from any thread; bitmaps are
+     * prepared for drawing on the calling (normally background) thread so
+     * that this work is not done on the main thread.
+     *
+     * @param resource The resource or null if the load operation failed.
+     */
+    protected void deliverResult(final R resource) {
+        if (resource instanceof Bitmap) {
+            ((Bitmap) resource).prepareToDraw();
+        }
+
+        FrameDispatcher.get().post(new Runnable() {
+            @Override
+            public void run() {
+                postResult(resource);
+            }
+        });
+    }
+
+    /**
+     * Reports if a downloaded file is waiting for or being processed by the
+     * decode stage.
+     *
+     * @return {@code true} if the decode stage has not yet completed; {@code
+     * false} if not.
+     */
+    protected boolean isDecoding() {
+        return mDecoding;
+    }
+
     /**
      * Helper method that forwards resource decode operation to the request.
      * @param uri The source file uri.
@@ -88,28 +276,49 @@ public abstract class AbstractDownloader<R> implements Downloader<R> {
     @WorkerThread
     @Override
     public final R decode(Uri uri) {
-        return uri != null && mRequest != null
-                ? mRequest.decodeResource(uri)
+        Request<R> request = mRequest;
+        return uri != null && request != null
+                ? request.decodeResource(uri)
                 : null;
     }
 
     /**
      * Helper that loads the passed resource into the request target.
-     * This method can only be called from the main thread.
+     * This method can only be called from the main thread. Once the result
+     * has been delivered, this downloader is released to the DownloadManager
+     * so that it can be reused by a later request.
      *
      * @param resource The resource to load.
      */
     @MainThread
     @SuppressWarnings("UnusedReturnValue")
     protected void postResult(R resource) {
-        if (mRequest != null) {
-            if (resource != null) {
-                mRequest.onResourceReady(resource);
-            } else {
-                mRequest.onLoadFailed();
+        Request<R> request = mRequest;
+        if (request != null) {
+            boolean delivered = resource != null
+                                ? request.onResourceReady(resource)
+                                : request.onLoadFailed();
+
+            // A request that was cancelled from another thread is still
+            // detaching this downloader so it must not be reused.
+            if (delivered) {
+                DownloadManager.get().releaseDownloader(this);
             }
         } else {
             Log.w(TAG, "Orphaned downloader attempting to set resource");
+            releaseResource(resource);
+        }
+    }
+
+    /**
+     * Releases the delivery reference that the decode stage acquired for a
+     * resource that will never be delivered to its request.
+     *
+     * @param resource The undelivered resource or null.
+     */
+    protected void releaseResource(R resource) {
+        if (resource instanceof Bitmap) {
+            DownloadManager.get().getBitmapPool().release((Bitmap) resource);
         }
     }
 }
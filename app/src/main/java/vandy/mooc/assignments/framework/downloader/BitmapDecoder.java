@@ -1,7 +1,6 @@
 package vandy.mooc.assignments.framework.downloader;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 
@@ -74,16 +73,32 @@ public class BitmapDecoder implements Decoder<Bitmap> {
      */
     @Nullable
     public Bitmap decode(Object input, int width, int height) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
+        return decode(input, width, height, null);
+    }
 
+    /**
+     * Decodes a data object from the passed input source to a bitmap that
+     * exactly covers the passed size. A preferred config of RGB_565 is only
+     * used for opaque sources.
+     *
+     * @param input  An input data source.
+     * @param width  Maximum width.
+     * @param height Maximum height.
+     * @param config An optional preferred bitmap config.
+     * @return An instance of the decoded data resource.
+     */
+    @Nullable
+    public Bitmap decode(Object input,
+                         int width,
+                         int height,
+                         @Nullable Bitmap.Config config) {
         if (input instanceof File) {
-            return decodeFile(((File)input).getPath(), width, height);
+            return decodeFile(((File) input).getPath(), width, height, config);
         } else if (input instanceof Uri) {
             return decodeFile(UriUtils.getPathNameFromFileUri((Uri) input),
-                              width, height);
+                              width, height, config);
         } else if (input instanceof InputStream) {
-            return decodeStream(((InputStream) input), width, height);
+            return decodeStream(((InputStream) input), width, height, config);
         }
 
         return null;
@@ -100,7 +115,26 @@ public class BitmapDecoder implements Decoder<Bitmap> {
     @SuppressWarnings("WeakerAccess")
     @Nullable
     public Bitmap decodeFile(String pathName, int width, int height) {
-        return BitmapUtils.decodeSampledBitmapFromFile(pathName, width, height);
+        return decodeFile(pathName, width, height, null);
+    }
+
+    /**
+     * Decodes an image from a file path using an optional preferred config.
+     *
+     * @param pathName A file path.
+     * @param width    Maximum width.
+     * @param height   Maximum height.
+     * @param config   An optional preferred bitmap config.
+     * @return A bitmap or null.
+     */
+    @SuppressWarnings("WeakerAccess")
+    @Nullable
+    public Bitmap decodeFile(String pathName,
+                             int width,
+                             int height,
+                             @Nullable Bitmap.Config config) {
+        return BitmapUtils.decodeSampledBitmapFromFile(
+                pathName, width, height, config, getBitmapPool());
     }
 
     /**
@@ -119,7 +153,35 @@ public class BitmapDecoder implements Decoder<Bitmap> {
     @SuppressWarnings("WeakerAccess")
     @Nullable
     public Bitmap decodeStream(InputStream inputStream, int width, int height) {
+        return decodeStream(inputStream, width, height, null);
+    }
+
+    /**
+     * Decodes from an input stream (see above) using an optional preferred
+     * config.
+     *
+     * @param inputStream An input stream containing an image source.
+     * @param width       Maximum width.
+     * @param height      Maximum height.
+     * @param config      An optional preferred bitmap config.
+     * @return A bitmap or null.
+     */
+    @SuppressWarnings("WeakerAccess")
+    @Nullable
+    public Bitmap decodeStream(InputStream inputStream,
+                               int width,
+                               int height,
+                               @Nullable Bitmap.Config config) {
         return BitmapUtils.decodeSampledBitmapFromStream(
-                inputStream, width, height);
+                inputStream, width, height, config, getBitmapPool());
+    }
+
+    /**
+     * Returns the pool from which decoded bitmaps are reused.
+     *
+     * @return The DownloadManager bitmap pool.
+     */
+    private static BitmapPool getBitmapPool() {
+        return DownloadManager.get().getBitmapPool();
     }
 }
@@ -0,0 +1,282 @@
+package vandy.mooc.assignments.framework.downloader;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import vandy.mooc.assignments.framework.utils.BitmapUtils;
+import vandy.mooc.assignments.framework.utils.Preconditions;
+
+/**
+ * A pool of mutable bitmaps that are no longer in use and that can be passed
+ * to the BitmapFactory decoder as BitmapFactory.Options.inBitmap to avoid
+ * allocating a new bitmap for every decode operation.
+ * <p/>
+ * Pooled bitmaps are grouped into size classes by config and allocation byte
+ * count so that a request for a bitmap of a given size returns the smallest
+ * pooled bitmap that is large enough to be reused. The total number of pooled
+ * bytes is bounded and the least recently pooled bitmaps are dropped first.
+ * <p/>
+ * Since a decoded bitmap may be shared by the memory cache and by any number
+ * of displaying targets, the pool also keeps a reference count for each
+ * bitmap it is told about (see {@link #acquire(Bitmap)} and {@link
+ * #release(Bitmap)}). A bitmap is only pooled once its last reference has been
+ * released so that a bitmap that is still being displayed is never reused.
+ * <p/>
+ * All methods are thread-safe.
+ */
+public class BitmapPool {
+    /**
+     * A pooled bitmap is only reused for a decode that needs at least
+     * 1/MAX_SIZE_MULTIPLE of the pooled allocation to limit wasted memory.
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    /**
+     * Maximum number of bytes held by this pool.
+     */
+    private final int mMaxSize;
+
+    /**
+     * Pooled bitmaps grouped by config and then by allocation byte count.
+     */
+    private final Map<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>>
+            mSizeClasses = new EnumMap<>(Bitmap.Config.class);
+
+    /**
+     * All pooled bitmaps in the order they were added (used for eviction).
+     */
+    private final LinkedHashSet<Bitmap> mLruOrder = new LinkedHashSet<>();
+
+    /**
+     * Reference counts of shared bitmaps. Weak keys ensure that bitmaps whose
+     * references are never released (destroyed views) can still be GC'd.
+     */
+    private final WeakHashMap<Bitmap, Integer> mReferenceCounts =
+            new WeakHashMap<>();
+
+    /**
+     * Current number of bytes held by this pool.
+     */
+    private int mSize;
+
+    /**
+     * Usage statistics.
+     */
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+    private long mReusedBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize The maximum number of bytes held by this pool.
+     */
+    public BitmapPool(int maxSize) {
+        Preconditions.checkArgument(maxSize >= 0,
+                                    "Bitmap pool size must not be negative");
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns a pooled bitmap that can hold a bitmap of the specified
+     * dimensions and config or null if no suitable bitmap is pooled. The
+     * returned bitmap is removed from the pool and its contents are
+     * undefined.
+     *
+     * @param width  The decoded bitmap width.
+     * @param height The decoded bitmap height.
+     * @param config The decoded bitmap config.
+     * @return A reusable mutable bitmap or null.
+     */
+    @Nullable
+    public synchronized Bitmap get(int width, int height,
+                                   @NonNull Bitmap.Config config) {
+        int required = width * height * BitmapUtils.getBytesPerPixel(config);
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes = mSizeClasses.get(config);
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry =
+                sizes != null && required > 0
+                ? sizes.ceilingEntry(required)
+                : null;
+
+        if (entry == null || entry.getKey() > required * MAX_SIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+
+        Bitmap bitmap = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            sizes.remove(entry.getKey());
+        }
+        mLruOrder.remove(bitmap);
+        mSize -= entry.getKey();
+        mHitCount++;
+        mReusedBytes += required;
+
+        return bitmap;
+    }
+
+    /**
+     * Adds a bitmap that is no longer used to this pool. Immutable, recycled,
+     * or oversized bitmaps are ignored.
+     *
+     * @param bitmap A bitmap that is no longer referenced by any component.
+     */
+    public synchronized void put(@NonNull Bitmap bitmap) {
+        int size = bitmap.getAllocationByteCount();
+        if (bitmap.isRecycled()
+                || !bitmap.isMutable()
+                || bitmap.getConfig() == null
+                || size > mMaxSize
+                || mLruOrder.contains(bitmap)) {
+            return;
+        }
+
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes =
+                mSizeClasses.get(bitmap.getConfig());
+        if (sizes == null) {
+            sizes = new TreeMap<>();
+            mSizeClasses.put(bitmap.getConfig(), sizes);
+        }
+
+        ArrayDeque<Bitmap> bitmaps = sizes.get(size);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            sizes.put(size, bitmaps);
+        }
+
+        bitmaps.add(bitmap);
+        mLruOrder.add(bitmap);
+        mSize += size;
+        mPutCount++;
+
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Records a new reference (memory cache entry or displaying target) to the
+     * passed bitmap.
+     *
+     * @param bitmap A decoded bitmap.
+     */
+    public synchronized void acquire(@NonNull Bitmap bitmap) {
+        Integer count = mReferenceCounts.get(bitmap);
+        mReferenceCounts.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Releases a reference to the passed bitmap. When the last reference is
+     * released, the bitmap is added to this pool. Bitmaps that were never
+     * acquired are ignored since they may still be referenced elsewhere.
+     *
+     * @param bitmap A bitmap previously passed to acquire().
+     */
+    public synchronized void release(@NonNull Bitmap bitmap) {
+        Integer count = mReferenceCounts.get(bitmap);
+        if (count == null) {
+            return;
+        }
+
+        if (count > 1) {
+            mReferenceCounts.put(bitmap, count - 1);
+        } else {
+            mReferenceCounts.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Removes all pooled bitmaps.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Evicts the least recently pooled bitmaps until the pool size is no
+     * larger than the passed size.
+     *
+     * @param maxSize The maximum pool size in bytes.
+     */
+    private void trimToSize(int maxSize) {
+        Iterator<Bitmap> iterator = mLruOrder.iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+
+            int size = bitmap.getAllocationByteCount();
+            TreeMap<Integer, ArrayDeque<Bitmap>> sizes =
+                    mSizeClasses.get(bitmap.getConfig());
+            ArrayDeque<Bitmap> bitmaps = sizes.get(size);
+            bitmaps.remove(bitmap);
+            if (bitmaps.isEmpty()) {
+                sizes.remove(size);
+            }
+
+            mSize -= size;
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * @return The number of bytes currently held by this pool.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The maximum number of bytes held by this pool.
+     */
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return The number of decodes that reused a pooled bitmap.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of decodes that had to allocate a new bitmap.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return The total number of bitmap bytes that were not allocated
+     * because a pooled bitmap was reused.
+     */
+    public synchronized long getReusedBytes() {
+        return mReusedBytes;
+    }
+
+    /**
+     * Returns a string containing the pool usage statistics.
+     */
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{" +
+                "size=" + mSize +
+                ", maxSize=" + mMaxSize +
+                ", hitCount=" + mHitCount +
+                ", missCount=" + mMissCount +
+                ", putCount=" + mPutCount +
+                ", evictionCount=" + mEvictionCount +
+                ", reusedBytes=" + mReusedBytes +
+                '}';
+    }
+}
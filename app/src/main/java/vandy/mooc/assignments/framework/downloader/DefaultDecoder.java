@@ -10,7 +10,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 import vandy.mooc.assignments.framework.utils.CacheUtils;
 import vandy.mooc.assignments.framework.utils.FileUtils;
@@ -34,11 +35,6 @@ public class DefaultDecoder implements Decoder<Uri> {
      */
     private static final String TAG = "DefaultDecoder";
 
-    /**
-     * Buffer length from stream to stream copy.
-     */
-    private static final int BUFFER_LENGTH = 1024;
-
     /**
      * Called by the framework to determine if the decoder can or needs to
      * validate incoming the data by calling the canDecodeFrom() method. This
@@ -146,8 +142,9 @@ public class DefaultDecoder implements Decoder<Uri> {
     @SuppressWarnings("WeakerAccess")
     private Uri decodeFile(String pathName)
             throws IOException {
-        return decodeStream(new FileInputStream(pathName),
-                            FileUtils.getExtension(pathName));
+        try (InputStream inputStream = new FileInputStream(pathName)) {
+            return decodeStream(inputStream, FileUtils.getExtension(pathName));
+        }
     }
 
     /**
@@ -163,12 +160,22 @@ public class DefaultDecoder implements Decoder<Uri> {
                 CacheUtils.getNewTempFile(
                         DownloadManager.get().getContext(), extension);
 
-        try (OutputStream outputStream = new FileOutputStream(file)) {
-            // Transfer bytes from in to out
-            byte[] buf = new byte[BUFFER_LENGTH];
-            int len;
-            while ((len = inputStream.read(buf)) > 0) {
-                outputStream.write(buf, 0, len);
+        try (FileChannel outputChannel =
+                     new FileOutputStream(file).getChannel()) {
+            if (inputStream instanceof FileInputStream) {
+                // File to file copies are transferred directly by the file
+                // system without passing through a user space buffer. Like
+                // the stream copy below, this consumes the caller's stream.
+                FileChannel inputChannel =
+                        ((FileInputStream) inputStream).getChannel();
+                FileUtils.transferFileTo(inputChannel,
+                                         inputChannel.position(),
+                                         outputChannel);
+            } else {
+                // Closing the wrapping channel would close the caller's
+                // stream so it is deliberately left open.
+                FileUtils.transfer(Channels.newChannel(inputStream),
+                                   outputChannel);
             }
         }
 
@@ -1,14 +1,17 @@
 package vandy.mooc.assignments.framework.downloader;
 
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * A downloader implementation that uses a fixed thread pools executor to
- * download a single image in a background thread.
+ * download a single image in a background thread. The downloaded file is then
+ * handed off to the DownloadManager's decode stage executor for decoding.
+ * When the executor is a PriorityExecutor, downloads are queued by request
+ * priority.
  * <p/>
  * The base ImageDownloader class provides helper methods to perform the
  * download operation as well as to return the resulting image bitmap to the
@@ -20,38 +23,98 @@ public class DefaultDownloader<R> extends AbstractDownloader<R> {
      */
     private static final String TAG = "DefaultDownloader";
     /**
-     * Create a new handler that is linked to the main thread looper.
+     * A reference to the background thread Future to support the cancel hook.
      */
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Future<?> mFuture;
 
     /**
-     * A reference to the background thread Future to support the cancel hook.
+     * Set when the pending download task has been removed from the executor
+     * queue by pause() (only accessed from the main thread).
      */
-    private Future<?> mFuture;
+    private boolean mPaused;
 
     /**
      * Starts the asynchronous download request.
      */
     @Override
     public void execute() {
+        mPaused = false;
+
         // Create a new DownloadRunnable and set its future to the result
-        // of the asynchronously submitted command.
+        // of the asynchronously submitted command. The runnable only performs
+        // the I/O stage and then hands the downloaded file off to the decode
+        // stage which posts the result to the main thread.
         mFuture = DownloadManager.get().mExecutor.submit(
-                new Runnable() {
+                new DownloadRunnable() {
                     @Override
                     public void run() {
-                        final R resource = download();
-
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                postResult(resource);
-                            }
-                        });
+                        fetchInBackground();
                     }
                 });
     }
 
+    /**
+     * Clears the completed task so that this downloader can be reused.
+     */
+    @Override
+    protected void reset() {
+        super.reset();
+        mFuture = null;
+        mPaused = false;
+    }
+
+    /**
+     * Pauses the download by removing its task from the executor queue so
+     * that it does not occupy a pool thread. A download that is already
+     * running is allowed to complete.
+     */
+    @Override
+    public void pause() {
+        ExecutorService executor = DownloadManager.get().mExecutor;
+        if (!mPaused
+                && mFuture instanceof Runnable
+                && executor instanceof ThreadPoolExecutor) {
+            mPaused = ((ThreadPoolExecutor) executor).remove(
+                    (Runnable) mFuture);
+        }
+    }
+
+    /**
+     * Resumes a paused download by returning its (never started) task to the
+     * executor. The task is queued with the current request priority since
+     * any priority change made while paused could not be applied to the
+     * unqueued task.
+     */
+    @Override
+    public void resume() {
+        if (mPaused) {
+            mPaused = false;
+            ExecutorService executor = DownloadManager.get().mExecutor;
+            Request<R> request = getRequest();
+            if (request == null
+                    || !(executor instanceof PriorityExecutor)
+                    || !((PriorityExecutor) executor).resubmit(
+                            mFuture, request.getPriority())) {
+                executor.execute((Runnable) mFuture);
+            }
+        }
+    }
+
+    /**
+     * Re-queues a pending download when the request priority changes.
+     */
+    @Override
+    public void onPriorityChanged() {
+        ExecutorService executor = DownloadManager.get().mExecutor;
+        Request<R> request = getRequest();
+        if (mFuture != null
+                && request != null
+                && executor instanceof PriorityExecutor) {
+            ((PriorityExecutor) executor).reprioritize(
+                    mFuture, request.getPriority());
+        }
+    }
+
     /**
      * Cancels the current download operation.
      */
@@ -72,7 +135,7 @@ public class DefaultDownloader<R> extends AbstractDownloader<R> {
      */
     @Override
     public boolean isRunning() {
-        return mFuture != null && !mFuture.isDone();
+        return mFuture != null && (!mFuture.isDone() || isDecoding());
     }
 
     /**
@@ -93,6 +156,19 @@ public class DefaultDownloader<R> extends AbstractDownloader<R> {
      */
     @Override
     public boolean hasCompleted() {
-        return mFuture != null && mFuture.isDone();
+        return mFuture != null && mFuture.isDone() && !isDecoding();
+    }
+
+    /**
+     * A download runnable that reports the current priority of the request
+     * so that it is queued accordingly by a PriorityExecutor.
+     */
+    private abstract class DownloadRunnable
+            implements Runnable, PriorityExecutor.Prioritized {
+        @Override
+        public Priority getPriority() {
+            Request<R> request = getRequest();
+            return request != null ? request.getPriority() : Priority.NORMAL;
+        }
     }
 }
@@ -0,0 +1,901 @@
+package vandy.mooc.assignments.framework.downloader;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import vandy.mooc.assignments.framework.utils.CacheUtils;
+import vandy.mooc.assignments.framework.utils.Preconditions;
+
+/**
+ * A size bounded least recently used disk cache. Each cache entry is a single
+ * file whose name is the entry key. Keys are expected to be fixed length hex
+ * hashes (see {@link CacheUtils#hashKey(String)}) and entry files are sharded
+ * into sub-directories named after the first two key characters so that no
+ * single directory grows too large.
+ * <p/>
+ * All cache operations are recorded in an append-only journal file so that
+ * the access order, total size, tag, and metadata of each entry can be quickly
+ * restored when the process restarts without having to examine every cached
+ * file. The journal also serves as the persistent index that maps each hashed
+ * key back to the (optional) metadata string that was passed when the entry
+ * was added, and that maps each (optional) tag to its entries so that all
+ * entries with a given tag can be removed without scanning the cache.
+ * <p/>
+ * The journal consists of a header line followed by one operation per line:
+ * <pre>
+ *     vandy.mooc.DiskCache 4
+ *     CLEAN key size tag metadata   an entry was added (or replaced)
+ *     READ key                      an entry was accessed
+ *     REMOVE key                    an entry was removed
+ * </pre>
+ * A CLEAN line always has all five fields. The tag and metadata fields are
+ * either "%" (no value) or the value prefixed with "=" so that empty values
+ * are never written as empty fields. Tags are URL encoded; the metadata is
+ * the remainder of the line so it may contain spaces but not line breaks.
+ * When the journal accumulates too many redundant operations it is compacted
+ * by rewriting it from the in-memory index. Whenever the cache grows beyond
+ * its size limit, the least recently used entries are evicted in a background
+ * thread.
+ * <p/>
+ * All public methods are thread-safe.
+ */
+public class DiskCache {
+    /**
+     * Logging tag.
+     */
+    private static final String TAG = "DiskCache";
+
+    /**
+     * Journal file names (distinct from the HttpResponseCache journal that may
+     * share the cache directory).
+     */
+    static final String JOURNAL_FILE = "cache.journal";
+    static final String JOURNAL_FILE_TEMP = "cache.journal.tmp";
+
+    /**
+     * Journal header and operation constants.
+     */
+    private static final String MAGIC = "vandy.mooc.DiskCache";
+    private static final String VERSION = "4";
+    private static final String NO_VALUE = "%";
+    private static final String VALUE_PREFIX = "=";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    /**
+     * Length of the key prefix used to name shard sub-directories.
+     */
+    private static final int SHARD_PREFIX_LENGTH = 2;
+
+    /**
+     * Prefix of the URL-encoded file names used by earlier versions of the
+     * cache (these legacy files are deleted when the index is rebuilt).
+     */
+    private static final String LEGACY_FILE_PREFIX = "?";
+
+    /**
+     * Number of redundant journal operations that triggers a compaction.
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    /**
+     * Journal character encoding.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The cache directory.
+     */
+    private final File mDirectory;
+
+    /**
+     * The journal file.
+     */
+    private final File mJournalFile;
+
+    /**
+     * The maximum number of bytes this cache should use.
+     */
+    private final long mMaxSize;
+
+    /**
+     * Access ordered map of entry keys to entries.
+     */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<>(0, 0.75f, true);
+
+    /**
+     * Maps each entry tag to the keys of the entries with that tag.
+     */
+    private final HashMap<String, Set<String>> mTagIndex = new HashMap<>();
+
+    /**
+     * Single background thread used for eviction and journal compaction.
+     */
+    private final ExecutorService mCleanupExecutor =
+            Executors.newSingleThreadExecutor();
+
+    /**
+     * Task that trims the cache and compacts the journal if required.
+     */
+    private final Runnable mCleanupRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (DiskCache.this) {
+                mCleanupPending = false;
+                trimToSize();
+                if (journalRebuildRequired()) {
+                    rebuildJournal();
+                }
+            }
+        }
+    };
+
+    /**
+     * Task that flushes buffered READ records to the journal file.
+     */
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (DiskCache.this) {
+                mFlushPending = false;
+                flushJournal();
+            }
+        }
+    };
+
+    /**
+     * The current total size of all cache entries.
+     */
+    private long mSize;
+
+    /**
+     * Number of journal lines that no longer contribute to the index.
+     */
+    private int mRedundantOpCount;
+
+    /**
+     * Set when a cleanup task has been submitted but has not yet run.
+     */
+    private boolean mCleanupPending;
+
+    /**
+     * Set when a journal flush task has been submitted but has not yet run.
+     */
+    private boolean mFlushPending;
+
+    /**
+     * The journal writer or null if journaling has failed.
+     */
+    private Writer mJournalWriter;
+
+    /**
+     * Constructor.
+     *
+     * @param directory The cache directory.
+     * @param maxSize   The maximum number of bytes this cache should use.
+     */
+    private DiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Opens the cache in the passed directory, creating it if required. The
+     * cache index is restored from the journal or, if no valid journal is
+     * found, from the files already in the directory.
+     *
+     * @param directory The cache directory.
+     * @param maxSize   The maximum number of bytes this cache should use.
+     * @return A DiskCache instance.
+     */
+    public static DiskCache open(@NonNull File directory, long maxSize) {
+        Preconditions.checkArgument(maxSize > 0,
+                                    "Disk cache size must be positive");
+
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+
+        DiskCache cache = new DiskCache(directory, maxSize);
+
+        synchronized (cache) {
+            if (cache.mJournalFile.isFile()) {
+                try {
+                    cache.readJournal();
+                } catch (IOException e) {
+                    Log.w(TAG, "Invalid journal, rebuilding index: " + e);
+                    cache.mEntries.clear();
+                    cache.mTagIndex.clear();
+                    cache.mSize = 0;
+                    cache.readDirectory();
+                }
+            } else {
+                cache.readDirectory();
+            }
+
+            // Always start with a compact journal.
+            cache.rebuildJournal();
+            cache.scheduleCleanupIfRequired();
+        }
+
+        return cache;
+    }
+
+    /**
+     * Returns the file for the passed key if the key is cached and records the
+     * access in the journal.
+     *
+     * @param key An entry key.
+     * @return The entry file or null if the key is not cached.
+     */
+    @Nullable
+    public synchronized File get(@NonNull String key) {
+        // Note that get() (unlike containsKey()) updates the access order.
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+
+        File file = getFile(key);
+        if (!file.isFile()) {
+            // The file was deleted outside of the cache.
+            removeEntry(key);
+            return null;
+        }
+
+        journal(READ, key);
+        return file;
+    }
+
+    /**
+     * Moves the passed source file into the cache as the entry for the
+     * passed key, replacing any existing entry.
+     *
+     * @param key      An entry key.
+     * @param source   A complete file (usually a temporary download file).
+     * @param tag      Optional entry tag used to remove groups of entries.
+     * @param metadata Optional entry metadata (no line breaks).
+     * @return The cached entry file or null if the source could not be moved
+     * into the cache.
+     */
+    @Nullable
+    public synchronized File put(@NonNull String key,
+                                 @NonNull File source,
+                                 @Nullable String tag,
+                                 @Nullable String metadata) {
+        Preconditions.checkArgument(
+                metadata == null
+                        || (metadata.indexOf('\n') < 0
+                        && metadata.indexOf('\r') < 0),
+                "Disk cache metadata must not contain line breaks");
+
+        File file = getFile(key);
+
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+
+        if (!source.renameTo(file)) {
+            Log.w(TAG, "Unable to move " + source + " into cache");
+            return null;
+        }
+
+        Entry entry = new Entry(file.length(), tag, metadata);
+        if (addEntry(key, entry) != null) {
+            mRedundantOpCount++;
+        }
+
+        journal(CLEAN, entry.toJournalArgs(key));
+        scheduleCleanupIfRequired();
+
+        return file;
+    }
+
+    /**
+     * Returns a snapshot that maps every cached key to the metadata that was
+     * passed when its entry was added (null if none). The snapshot is in
+     * access order (least recently used first) and taking it does not affect
+     * that order.
+     *
+     * @return A map of keys to metadata.
+     */
+    public synchronized Map<String, String> snapshot() {
+        Map<String, String> snapshot = new LinkedHashMap<>(mEntries.size());
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().mMetadata);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Removes the entry for the passed key and deletes its file.
+     *
+     * @param key An entry key.
+     * @return {@code true} if the entry was removed, {@code false} if not.
+     */
+    public synchronized boolean remove(@NonNull String key) {
+        if (!mEntries.containsKey(key)) {
+            return false;
+        }
+
+        removeEntry(key);
+        return true;
+    }
+
+    /**
+     * Removes all entries with the passed tag and deletes their files. Only
+     * the entries with the passed tag are examined.
+     *
+     * @param tag An entry tag.
+     * @return The number of removed entries.
+     */
+    public synchronized int removeTag(@NonNull String tag) {
+        Set<String> keys = mTagIndex.get(tag);
+        if (keys == null) {
+            return 0;
+        }
+
+        // Copy since removeEntry() updates the tag index.
+        List<String> tagKeys = new ArrayList<>(keys);
+        for (String key : tagKeys) {
+            removeEntry(key);
+        }
+
+        return tagKeys.size();
+    }
+
+    /**
+     * Removes all entries and deletes their files.
+     */
+    public synchronized void clear() {
+        for (String key : new ArrayList<>(mEntries.keySet())) {
+            //noinspection ResultOfMethodCallIgnored
+            getFile(key).delete();
+        }
+
+        mEntries.clear();
+        mTagIndex.clear();
+        mSize = 0;
+        rebuildJournal();
+    }
+
+    /**
+     * @return The current number of bytes used by all cache entries.
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * @return The maximum number of bytes this cache should use.
+     */
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the file that holds (or will hold) the entry for the passed
+     * key. The file is located in the key's shard sub-directory and may not
+     * exist.
+     *
+     * @param key An entry key.
+     * @return The entry file.
+     */
+    public File getFile(@NonNull String key) {
+        if (key.length() <= SHARD_PREFIX_LENGTH) {
+            return new File(mDirectory, key);
+        }
+
+        return new File(new File(mDirectory,
+                                 key.substring(0, SHARD_PREFIX_LENGTH)),
+                        key);
+    }
+
+    /**
+     * Closes the journal and stops the background cleanup thread.
+     */
+    public synchronized void close() {
+        mCleanupExecutor.shutdown();
+        flushJournal();
+        closeJournal();
+    }
+
+    /**
+     * Helper that removes the entry from the index, deletes its file, and
+     * records the removal.
+     *
+     * @param key An entry key.
+     */
+    private void removeEntry(String key) {
+        dropEntry(key);
+
+        //noinspection ResultOfMethodCallIgnored
+        getFile(key).delete();
+
+        journal(REMOVE, key);
+    }
+
+    /**
+     * Adds an entry to the index, updating the cache size and tag index.
+     *
+     * @param key   An entry key.
+     * @param entry The entry to add.
+     * @return The replaced entry or null.
+     */
+    private Entry addEntry(String key, Entry entry) {
+        Entry oldEntry = dropEntry(key);
+
+        mEntries.put(key, entry);
+        mSize += entry.mSize;
+
+        if (entry.mTag != null) {
+            Set<String> keys = mTagIndex.get(entry.mTag);
+            if (keys == null) {
+                keys = new HashSet<>();
+                mTagIndex.put(entry.mTag, keys);
+            }
+            keys.add(key);
+        }
+
+        return oldEntry;
+    }
+
+    /**
+     * Removes an entry from the index, updating the cache size and tag
+     * index. The entry file is not deleted.
+     *
+     * @param key An entry key.
+     * @return The removed entry or null.
+     */
+    private Entry dropEntry(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+
+        mSize -= entry.mSize;
+
+        if (entry.mTag != null) {
+            Set<String> keys = mTagIndex.get(entry.mTag);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    mTagIndex.remove(entry.mTag);
+                }
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits its size
+     * limit.
+     */
+    private void trimToSize() {
+        while (mSize > mMaxSize && !mEntries.isEmpty()) {
+            // Iterating the key set does not affect the access order.
+            removeEntry(mEntries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Submits a background cleanup task if the cache is too large or if the
+     * journal should be compacted.
+     */
+    private void scheduleCleanupIfRequired() {
+        if (!mCleanupPending
+                && (mSize > mMaxSize || journalRebuildRequired())
+                && !mCleanupExecutor.isShutdown()) {
+            mCleanupPending = true;
+            mCleanupExecutor.submit(mCleanupRunnable);
+        }
+    }
+
+    /**
+     * Only compact the journal when doing so would at least halve its size.
+     *
+     * @return {@code true} if the journal should be rebuilt.
+     */
+    private boolean journalRebuildRequired() {
+        return mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && mRedundantOpCount >= mEntries.size();
+    }
+
+    /**
+     * Appends an operation to the journal. CLEAN and REMOVE records are
+     * flushed immediately; READ records only affect the eviction order, so
+     * they are buffered and flushed on the cleanup thread to keep file I/O
+     * out of the cache lookup path.
+     *
+     * @param op   The operation.
+     * @param args The operation arguments.
+     */
+    private void journal(String op, String args) {
+        if (!op.equals(CLEAN)) {
+            mRedundantOpCount++;
+        }
+
+        if (mJournalWriter == null) {
+            return;
+        }
+
+        try {
+            mJournalWriter.write(op + ' ' + args + '\n');
+            if (!op.equals(READ)) {
+                mJournalWriter.flush();
+            } else if (!mFlushPending && !mCleanupExecutor.isShutdown()) {
+                mFlushPending = true;
+                mCleanupExecutor.submit(mFlushRunnable);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write journal, journaling disabled: " + e);
+            closeJournal();
+        }
+
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD) {
+            scheduleCleanupIfRequired();
+        }
+    }
+
+    /**
+     * Writes any buffered journal records to the journal file.
+     */
+    private void flushJournal() {
+        if (mJournalWriter == null) {
+            return;
+        }
+
+        try {
+            mJournalWriter.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write journal, journaling disabled: " + e);
+            closeJournal();
+        }
+    }
+
+    /**
+     * Restores the index by replaying the journal.
+     *
+     * @throws IOException if the journal can not be read or is invalid.
+     */
+    private void readJournal() throws IOException {
+        try (BufferedReader reader =
+                     new BufferedReader(
+                             new InputStreamReader(
+                                     new FileInputStream(mJournalFile),
+                                     UTF_8))) {
+            String header = reader.readLine();
+            if (!(MAGIC + ' ' + VERSION).equals(header)) {
+                throw new IOException("unexpected journal header " + header);
+            }
+
+            // Each line is only applied once the next line has been read so
+            // that the last line can be checked for a torn write.
+            int lineCount = 0;
+            String previous = null;
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (previous != null) {
+                    readJournalLine(previous);
+                }
+                previous = line;
+                lineCount++;
+            }
+
+            // A last line without a line terminator is an incomplete append
+            // (e.g. the process died while buffered records were flushed)
+            // and is ignored rather than invalidating the whole journal.
+            if (previous != null) {
+                if (endsWithNewline(mJournalFile)) {
+                    readJournalLine(previous);
+                } else {
+                    Log.w(TAG, "Ignoring truncated journal line " + previous);
+                }
+            }
+
+            mRedundantOpCount = lineCount - mEntries.size();
+        }
+    }
+
+    /**
+     * Checks if the last byte of a file is a line feed.
+     *
+     * @param file A file.
+     * @return {@code true} if the file ends with a line feed; {@code false}
+     * if not.
+     * @throws IOException if the file can not be read.
+     */
+    private static boolean endsWithNewline(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            long length = input.length();
+            if (length == 0) {
+                return false;
+            }
+            input.seek(length - 1);
+            return input.read() == '\n';
+        }
+    }
+
+    /**
+     * Applies a single journal operation to the index.
+     *
+     * @param line A journal line.
+     * @throws IOException if the line is invalid.
+     */
+    private void readJournalLine(String line) throws IOException {
+        // The metadata is the last field and may itself contain spaces.
+        String[] parts = line.split(" ", 5);
+        if (parts.length < 2) {
+            throw new IOException("unexpected journal line " + line);
+        }
+
+        String key = parts[1];
+
+        switch (parts[0]) {
+            case CLEAN:
+                if (parts.length != 5) {
+                    throw new IOException("unexpected journal line " + line);
+                }
+                try {
+                    addEntry(key, new Entry(
+                            Long.parseLong(parts[2]),
+                            decodeTag(parts[3]),
+                            decodeValue(parts[4])));
+                } catch (IllegalArgumentException e) {
+                    // Also thrown for an invalid size (NumberFormatException).
+                    throw new IOException("unexpected journal line " + line);
+                }
+                break;
+
+            case READ:
+                // Updates the access order.
+                mEntries.get(key);
+                break;
+
+            case REMOVE:
+                dropEntry(key);
+                break;
+
+            default:
+                throw new IOException("unexpected journal line " + line);
+        }
+    }
+
+    /**
+     * Restores the index from the files found in the cache shard directories
+     * (used when no valid journal exists). Files are ordered by their last
+     * modified time to approximate their access order. Since tags and
+     * metadata are only stored in the journal, entries restored this way have
+     * neither.
+     */
+    private void readDirectory() {
+        File[] dirs = mDirectory.listFiles();
+        if (dirs == null) {
+            return;
+        }
+
+        List<File> files = new ArrayList<>();
+        for (File dir : dirs) {
+            if (dir.isDirectory()
+                    && dir.getName().length() == SHARD_PREFIX_LENGTH) {
+                File[] shardFiles = dir.listFiles();
+                if (shardFiles != null) {
+                    files.addAll(Arrays.asList(shardFiles));
+                }
+            } else if (dir.isFile()
+                    && dir.getName().startsWith(LEGACY_FILE_PREFIX)) {
+                // Remove unbounded flat files written by earlier versions.
+                //noinspection ResultOfMethodCallIgnored
+                dir.delete();
+            }
+        }
+
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.indexOf(' ') < 0) {
+                addEntry(name, new Entry(file.length(), null, null));
+            }
+        }
+    }
+
+    /**
+     * Replaces the journal with a compact journal that contains a single
+     * CLEAN line for each entry in the current access order.
+     */
+    private void rebuildJournal() {
+        closeJournal();
+
+        File tempFile = new File(mDirectory, JOURNAL_FILE_TEMP);
+
+        try (Writer writer =
+                     new BufferedWriter(
+                             new OutputStreamWriter(
+                                     new FileOutputStream(tempFile),
+                                     UTF_8))) {
+            writer.write(MAGIC + ' ' + VERSION + '\n');
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + ' '
+                                     + entry.getValue().toJournalArgs(
+                                             entry.getKey())
+                                     + '\n');
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to rebuild journal: " + e);
+            return;
+        }
+
+        if (!tempFile.renameTo(mJournalFile)) {
+            Log.w(TAG, "Unable to replace journal");
+            return;
+        }
+
+        mRedundantOpCount = 0;
+
+        try {
+            mJournalWriter =
+                    new BufferedWriter(
+                            new OutputStreamWriter(
+                                    new FileOutputStream(mJournalFile, true),
+                                    UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to open journal: " + e);
+        }
+    }
+
+    /**
+     * Encodes a tag journal field so that it contains no spaces or line
+     * breaks and is never empty.
+     *
+     * @param tag An optional tag.
+     * @return The encoded tag field.
+     */
+    private static String encodeTag(@Nullable String tag) {
+        try {
+            return encodeValue(
+                    tag != null ? URLEncoder.encode(tag, "UTF-8") : null);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Decodes a tag journal field encoded by encodeTag().
+     *
+     * @param field An encoded tag field.
+     * @return The tag or null.
+     * @throws IllegalArgumentException if the field is invalid.
+     */
+    @Nullable
+    private static String decodeTag(String field) {
+        String encodedTag = decodeValue(field);
+        try {
+            return encodedTag != null
+                   ? URLDecoder.decode(encodedTag, "UTF-8")
+                   : null;
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Encodes an optional value as a journal field that is never empty.
+     *
+     * @param value An optional value.
+     * @return NO_VALUE or the value prefixed with VALUE_PREFIX.
+     */
+    private static String encodeValue(@Nullable String value) {
+        return value != null ? VALUE_PREFIX + value : NO_VALUE;
+    }
+
+    /**
+     * Decodes a journal field encoded by encodeValue().
+     *
+     * @param field An encoded field.
+     * @return The value or null.
+     * @throws IllegalArgumentException if the field is invalid.
+     */
+    @Nullable
+    private static String decodeValue(String field) {
+        if (NO_VALUE.equals(field)) {
+            return null;
+        }
+
+        if (!field.startsWith(VALUE_PREFIX)) {
+            throw new IllegalArgumentException("invalid field " + field);
+        }
+
+        return field.substring(VALUE_PREFIX.length());
+    }
+
+    /**
+     * Closes the journal writer (if open).
+     */
+    private void closeJournal() {
+        if (mJournalWriter != null) {
+            try {
+                mJournalWriter.close();
+            } catch (IOException ignored) {
+            }
+            mJournalWriter = null;
+        }
+    }
+
+    /**
+     * An index entry.
+     */
+    private static final class Entry {
+        /**
+         * The entry file size.
+         */
+        final long mSize;
+
+        /**
+         * Optional entry tag.
+         */
+        final String mTag;
+
+        /**
+         * Optional entry metadata.
+         */
+        final String mMetadata;
+
+        /**
+         * Constructor.
+         *
+         * @param size     The entry file size.
+         * @param tag      Optional entry tag.
+         * @param metadata Optional entry metadata.
+         */
+        Entry(long size, @Nullable String tag, @Nullable String metadata) {
+            mSize = size;
+            mTag = tag;
+            mMetadata = metadata;
+        }
+
+        /**
+         * Formats the arguments of a CLEAN journal line for this entry.
+         *
+         * @param key The entry key.
+         * @return The journal line arguments.
+         */
+        String toJournalArgs(String key) {
+            return key + ' ' + mSize + ' ' + encodeTag(mTag)
+                    + ' ' + encodeValue(mMetadata);
+        }
+    }
+}
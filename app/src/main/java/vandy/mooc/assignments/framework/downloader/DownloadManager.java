@@ -3,13 +3,35 @@ package vandy.mooc.assignments.framework.downloader;
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.util.Log;
 import android.widget.ImageView;
 
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import vandy.mooc.assignments.framework.application.DownloadApplication;
 import vandy.mooc.assignments.assignment.downloader.DownloadFactory;
@@ -31,9 +53,10 @@ import vandy.mooc.assignments.framework.utils.Utils;
  * be easily modified to use either Picasso or Glide which provide more features
  * as well as efficient memory caching.
  * <p/>
- * Note: Although this framework was designed to provide hooks to support a
- * memory cache, the current implementation does not provide any memory caching
- * implementation.
+ * Decoded bitmaps are kept in a memory cache (see {@link MemoryCache}) so that
+ * requests for recently displayed images can be satisfied synchronously on the
+ * main thread without any disk or network I/O. The cache is consulted and
+ * updated according to each request's {@link MemoryPolicy}.
  */
 @SuppressWarnings("FieldCanBeLocal")
 public class DownloadManager {
@@ -42,9 +65,25 @@ public class DownloadManager {
      */
     private static final String TAG = "DownloadManager";
     /**
-     * Default executor service thread pool size.
+     * Default I/O stage thread pool size. I/O threads spend most of their
+     * time waiting on the network so there are more of them than cores.
      */
-    private static final int EXECUTOR_THREAD_COUNT = 4;
+    private static final int EXECUTOR_THREAD_COUNT = 6;
+    /**
+     * Decode stage thread pool size. Decoding is CPU bound so there is one
+     * thread per core.
+     */
+    private static final int DECODE_THREAD_COUNT =
+            Runtime.getRuntime().availableProcessors();
+    /**
+     * Capacity of the hand-off queue between the I/O and decode stages.
+     */
+    private static final int DECODE_QUEUE_CAPACITY = 4 * DECODE_THREAD_COUNT;
+    /**
+     * Capacity of the thumbnail decode queue. Thumbnails submitted while the
+     * queue is full are skipped.
+     */
+    private static final int THUMBNAIL_QUEUE_CAPACITY = 8;
     /**
      * The singleton instance. The context stored in this singleton is the
      * application context and therefore will not cause a "StaticFieldLeak".
@@ -52,19 +91,38 @@ public class DownloadManager {
     @SuppressLint("StaticFieldLeak")
     private static volatile DownloadManager singleton = null;
     /**
-     * The executor service to support ThreadPoolDownloader policy.
+     * The executor service to support ThreadPoolDownloader policy. This is
+     * the I/O stage of the download pipeline.
      */
     public final ExecutorService mExecutor;
+    /**
+     * The decode stage of the download pipeline. Downloaded files are handed
+     * off from the I/O stage to this executor to be decoded.
+     */
+    public final ThreadPoolExecutor mDecodeExecutor;
+    /**
+     * Decodes thumbnails from the disk cache ahead of the full size decode.
+     * Submitted from the main thread, so it never blocks when full.
+     */
+    private final ThreadPoolExecutor mThumbnailExecutor;
     /**
      * The application context.
      */
     private final Context mContext;
     /**
-     * A memory caching implementation (for future versions).
+     * Handler used to post completion callbacks to the main thread.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * The memory cache used to hold decoded bitmaps.
      */
-    @SuppressWarnings("unused")
     private final Cache mCache;
 
+    /**
+     * Pool of unused bitmaps that can be reused when decoding.
+     */
+    private final BitmapPool mBitmapPool;
+
     /**
      * The default download policy (only to be used with DownloaderFactory).
      */
@@ -87,10 +145,30 @@ public class DownloadManager {
 
     /**
      * The default Download class implementation to use when building a download
-     * request.
+     * request for a policy that has no registered factory. This class is only
+     * instantiated (using reflection) when the downloader pool is empty.
      */
     private Class<?> mDownloaderClass;
 
+    /**
+     * Maximum number of idle downloaders kept for reuse for each policy.
+     */
+    private static final int MAX_POOLED_DOWNLOADERS = 16;
+
+    /**
+     * Registered downloader factories keyed by download policy (only
+     * accessed from the main thread).
+     */
+    private final EnumMap<DownloadPolicy, DownloaderFactory> mFactories =
+            new EnumMap<>(DownloadPolicy.class);
+
+    /**
+     * Idle downloaders that have completed a request and can be reused,
+     * keyed by download policy (only accessed from the main thread).
+     */
+    private final EnumMap<DownloadPolicy, ArrayDeque<AbstractDownloader>>
+            mDownloaderPools = new EnumMap<>(DownloadPolicy.class);
+
     /**
      * Manages all request objects and ties their lifecycle to the lifecycle of
      * the activity context that is passed in by the application during request
@@ -98,6 +176,47 @@ public class DownloadManager {
      */
     private RequestManager mRequestManager;
 
+    /**
+     * Default cancellation grace thresholds (see setCancelGracePolicy()).
+     */
+    private static final float DEFAULT_GRACE_MIN_PROGRESS = 0.8f;
+    private static final long DEFAULT_GRACE_MAX_REMAINING_BYTES = 32 * 1024;
+
+    /**
+     * A cancelled download that has reached this fraction of its content
+     * length is allowed to finish into the disk cache.
+     */
+    private float mGraceMinProgress = DEFAULT_GRACE_MIN_PROGRESS;
+
+    /**
+     * A cancelled download with at most this many bytes remaining is allowed
+     * to finish into the disk cache.
+     */
+    private long mGraceMaxRemainingBytes = DEFAULT_GRACE_MAX_REMAINING_BYTES;
+
+    /**
+     * Total number of downloaded bytes discarded by cancelled downloads.
+     */
+    private final AtomicLong mWastedBytes = new AtomicLong();
+
+    /**
+     * Tags whose requests are currently paused (see pauseTag()). Only
+     * accessed from the main thread.
+     */
+    private final Set<String> mPausedTags = new HashSet<>();
+
+    /**
+     * The executor tasks of all queued or running prefetch requests. Only
+     * accessed from the main thread.
+     */
+    private final Map<Request, Future<?>> mPrefetchTasks = new HashMap<>();
+
+    /**
+     * Prefetch requests that are held back because their tag is paused. Only
+     * accessed from the main thread.
+     */
+    private final List<Request> mPausedPrefetches = new ArrayList<>();
+
     /**
      * Constructor.
      *
@@ -117,8 +236,10 @@ public class DownloadManager {
             @Nullable ExecutorService executor,
             boolean logging) {
         // Replace optional parameters with defaults where required.
+        BitmapPool bitmapPool = createDefaultBitmapPool(context);
+
         if (cache == null) {
-            cache = createDefaultCache();
+            cache = createDefaultCache(context, bitmapPool);
         }
 
         if (downloadPolicy == null) {
@@ -133,7 +254,10 @@ public class DownloadManager {
         mContext = context;
         mLogging = logging;
         mCache = cache;
+        mBitmapPool = bitmapPool;
         mExecutor = executor;
+        mDecodeExecutor = createDefaultDecodeExecutor();
+        mThumbnailExecutor = createThumbnailExecutor();
 
         // Non-final default.
         mDownloadPolicy = downloadPolicy;
@@ -209,25 +333,123 @@ public class DownloadManager {
      * background download threads. To use a custom executor service use the
      * DownloadManager constructor to pass in the custom ExecutorService as a
      * parameter and then call setSingletonInstance() passing in the created
-     * DownloadManager.
+     * DownloadManager. The default executor runs pending downloads in
+     * request priority order (see {@link PriorityExecutor}).
      *
      * @return An ExecutorService implementation.
      */
     private static ExecutorService createDefaultExecutor() {
-        return Executors.newFixedThreadPool(EXECUTOR_THREAD_COUNT);
+        return new PriorityExecutor(EXECUTOR_THREAD_COUNT);
     }
 
     /**
-     * Creates the default cache used to save and manage data returned by the
-     * Downloader implementation.
-     * <p/>
-     * NOTE: not currently implemented in this framework.
+     * Creates the decode stage executor. The hand-off queue is bounded and
+     * when it is full, an I/O thread that hands off another file blocks until
+     * there is room so that the I/O stage can never run arbitrarily far ahead
+     * of the decode stage.
      *
+     * @return A ThreadPoolExecutor.
+     */
+    private static ThreadPoolExecutor createDefaultDecodeExecutor() {
+        return new ThreadPoolExecutor(
+                DECODE_THREAD_COUNT,
+                DECODE_THREAD_COUNT,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(DECODE_QUEUE_CAPACITY),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(
+                            Runnable runnable,
+                            ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException(
+                                    "Decode executor has been shut down");
+                        }
+
+                        try {
+                            executor.getQueue().put(runnable);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Creates the single thread thumbnail executor. Unlike the decode stage
+     * executor, its bounded queue rejects (rather than blocks) submissions
+     * when full since thumbnails are optional and are submitted from the
+     * main thread.
+     *
+     * @return A ThreadPoolExecutor.
+     */
+    private static ThreadPoolExecutor createThumbnailExecutor() {
+        return new ThreadPoolExecutor(
+                1,
+                1,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(THUMBNAIL_QUEUE_CAPACITY),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Returns the number of tasks waiting for an I/O stage thread.
+     *
+     * @return The I/O stage queue depth or -1 if the I/O executor does not
+     * expose its queue.
+     */
+    public int getIoQueueDepth() {
+        return mExecutor instanceof ThreadPoolExecutor
+               ? ((ThreadPoolExecutor) mExecutor).getQueue().size()
+               : -1;
+    }
+
+    /**
+     * Returns the number of downloaded files waiting for a decode stage
+     * thread.
+     *
+     * @return The decode stage queue depth.
+     */
+    public int getDecodeQueueDepth() {
+        return mDecodeExecutor.getQueue().size();
+    }
+
+    /**
+     * Creates the default memory cache used to save and manage decoded bitmaps
+     * returned by the Downloader implementation. To use a custom cache use the
+     * DownloadManager constructor to pass in the custom Cache as a parameter
+     * and then call setSingletonInstance() passing in the created
+     * DownloadManager.
+     *
+     * @param context Any context.
+     * @param pool    The pool that receives bitmaps evicted from the cache.
      * @return A Cache implementation.
      */
-    @SuppressWarnings("SameReturnValue")
-    private static Cache createDefaultCache() {
-        return null;
+    private static Cache createDefaultCache(Context context, BitmapPool pool) {
+        return new MemoryCache(context, pool);
+    }
+
+    /**
+     * Creates the default pool of reusable bitmaps.
+     *
+     * @param context Any context.
+     * @return A BitmapPool.
+     */
+    private static BitmapPool createDefaultBitmapPool(Context context) {
+        return new BitmapPool(CacheUtils.calculateBitmapPoolSize(context));
+    }
+
+    /**
+     * Returns the pool of reusable bitmaps used by bitmap decoders and
+     * targets.
+     *
+     * @return The bitmap pool.
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
     }
 
     /**
@@ -248,11 +470,6 @@ public class DownloadManager {
      */
     void dispatch(Request request) {
         Log.i("TRACE", "Do I even get here?");
-        if (mDownloaderClass == null) {
-            throw new IllegalStateException(
-                    "No downloader class has been set.");
-        }
-
         if (request.mTarget == null) {
             throw new IllegalArgumentException(
                     "Target download request requires a non-null target");
@@ -270,6 +487,29 @@ public class DownloadManager {
         request.mNetworkPolicy = getNetworkPolicy(request);
         request.mMemoryPolicy = getMemoryPolicy(request);
 
+        // If the resource is already in the memory cache, deliver it
+        // synchronously without starting a downloader or displaying the
+        // placeholder.
+        if (MemoryPolicy.readFromCache(request.mMemoryPolicy)) {
+            Object resource = getCachedResource(request);
+            if (resource != null) {
+                // The target's previous request is cancelled subject to the
+                // cancel grace policy, like any other replaced request.
+                Request oldRequest = request.mTarget.getRequest();
+                if (oldRequest != null) {
+                    cancelRequest(oldRequest);
+                }
+
+                if (mLogging) {
+                    Log.d(TAG, "dispatch: resource loaded from MEMORY CACHE");
+                }
+
+                //noinspection unchecked
+                request.onResourceCached(resource);
+                return;
+            }
+        }
+
         // All target implementations are required to manage a back reference
         // to their request object by implementing setRequest() and
         // getRequest().
@@ -284,7 +524,7 @@ public class DownloadManager {
         if (request.mTarget.getRequest() != null) {
             // Sanity check... back references should never be orphaned.
             Preconditions.checkState(
-                    mRequestManager.hasRequest(request.mContext, request),
+                    mRequestManager.hasRequest(request.getContext(), request),
                     "dispatch: recycled target contains an orphaned request");
 
             // Check if the request download is still running and if so, just
@@ -314,27 +554,336 @@ public class DownloadManager {
         // responsible for calling the request's download lifecycle hook
         // methods.
         request.start();
+
+        // Replace the placeholder with a cached thumbnail (if requested)
+        // while the full size resource is being loaded.
+        loadThumbnail(request);
+
+        // Requests for a paused tag are immediately paused so that they
+        // remain queued until the tag is resumed.
+        if (mPausedTags.contains(request.mTag)) {
+            request.pause();
+        }
     }
 
     /**
-     * Constructs a new downloader instance and attaches a request.
+     * Starts an asynchronous target-less request that only downloads the
+     * request resource into the disk cache. The download is queued on the
+     * I/O executor according to the request priority and the resource is not
+     * decoded. If the request tag is paused, the download is deferred until
+     * the tag is resumed.
      *
-     * @return A new downloader instance bound to the specified request.
+     * @param request A request without a target.
      */
-    private Downloader getDownloader(Request request) {
+    @MainThread
+    void prefetch(final Request request) {
+        Utils.assertMainThread();
+
+        // If the request does not have it's own policies, set them to the
+        // application wide defaults.
+        request.mNetworkPolicy = getNetworkPolicy(request);
+        request.mMemoryPolicy = getMemoryPolicy(request);
+
+        // Bind the request to its context's lifecycle so that it is cancelled
+        // if its activity is destroyed.
+        mRequestManager.addRequest(request);
+        request.startPrefetch();
+
+        if (mPausedTags.contains(request.mTag)) {
+            mPausedPrefetches.add(request);
+        } else {
+            executePrefetch(request);
+        }
+    }
+
+    /**
+     * Queues the download of a started prefetch request on the I/O executor.
+     *
+     * @param request A started prefetch request.
+     */
+    @MainThread
+    private void executePrefetch(Request request) {
+        try {
+            mPrefetchTasks.put(
+                    request, mExecutor.submit(new PrefetchRunnable(request)));
+        } catch (RejectedExecutionException e) {
+            request.onPrefetchCompleted(null);
+        }
+    }
+
+    /**
+     * Removes all queued (not yet running) prefetch downloads with the
+     * specified tag from the I/O executor so that they are held back until
+     * the tag is resumed.
+     *
+     * @param tag A request tag.
+     * @return The number of paused prefetches.
+     */
+    @MainThread
+    private int pausePrefetches(@NonNull String tag) {
+        if (!(mExecutor instanceof ThreadPoolExecutor)) {
+            return 0;
+        }
+
+        int count = 0;
+        Iterator<Map.Entry<Request, Future<?>>> iterator =
+                mPrefetchTasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Request, Future<?>> entry = iterator.next();
+            if (tag.equals(entry.getKey().mTag)
+                    && entry.getValue() instanceof Runnable
+                    && ((ThreadPoolExecutor) mExecutor).remove(
+                    (Runnable) entry.getValue())) {
+                iterator.remove();
+                mPausedPrefetches.add(entry.getKey());
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Queues all held back prefetch downloads with the specified tag.
+     * Prefetches that were cancelled while paused are dropped.
+     *
+     * @param tag A request tag.
+     * @return The number of resumed prefetches.
+     */
+    @MainThread
+    private int resumePrefetches(@NonNull String tag) {
+        int count = 0;
+        Iterator<Request> iterator = mPausedPrefetches.iterator();
+        while (iterator.hasNext()) {
+            Request request = iterator.next();
+            if (tag.equals(request.mTag)) {
+                iterator.remove();
+                if (!request.isCancelled()) {
+                    executePrefetch(request);
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Prefetches a list of resources into the disk cache at LOW priority.
+     * The passed tag must match the tag used by the requests that will later
+     * display these resources so that they share the same disk cache
+     * entries.
+     *
+     * @param activity The activity that determines the lifespan of the
+     *                 prefetch requests.
+     * @param uris     The resources to prefetch.
+     * @param tag      The request tag (see RequestCreator.tag()).
+     */
+    @MainThread
+    public static void prefetch(
+            Activity activity,
+            List<Uri> uris,
+            @Nullable String tag) {
+        for (Uri uri : uris) {
+            with(activity).load(uri).tag(tag).prefetch();
+        }
+    }
+
+    /**
+     * Displays a thumbnail of the passed request's resource in its target.
+     * If any size or config of the resource is held in the memory cache (for
+     * example, the bitmap displayed by a grid cell), the largest one is
+     * displayed immediately. Otherwise, if the resource has already been
+     * downloaded, a thumbnail is decoded from the disk cache on the thumbnail
+     * executor (ahead of the full size decode) and then displayed. A
+     * thumbnail is never downloaded and is skipped if the thumbnail executor
+     * is saturated.
+     *
+     * @param request A started request.
+     */
+    @MainThread
+    private void loadThumbnail(final Request request) {
+        if (!request.hasThumbnail() || !isMemoryCacheable(request)) {
+            return;
+        }
+
+        if (MemoryPolicy.readFromCache(request.mMemoryPolicy)) {
+            Bitmap thumbnail = mCache.getResource(
+                    request.getResourceMemoryCacheKeyPrefix());
+            if (thumbnail != null) {
+                //noinspection unchecked
+                request.onThumbnailReady(thumbnail);
+                return;
+            }
+        }
+
         try {
-            Downloader downloader = (Downloader) mDownloaderClass.newInstance();
+            mThumbnailExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Bitmap thumbnail = decodeThumbnail(request);
+                    if (thumbnail != null) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                //noinspection unchecked
+                                request.onThumbnailReady(thumbnail);
+                                mBitmapPool.release(thumbnail);
+                            }
+                        });
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The thumbnail is optional.
+            if (mLogging) {
+                Log.d(TAG, "Thumbnail skipped for " + request);
+            }
+        }
+    }
 
-            // Note that there is no way to verify if the registered downloader
-            // type matches request type.
-            //noinspection unchecked
-            downloader.setRequest(request);
+    /**
+     * Decodes the thumbnail of the passed request from the disk cache and
+     * adds it to the memory cache. The returned bitmap holds a pool
+     * reference that must be released once it has been delivered.
+     *
+     * @param request A running request.
+     * @return The thumbnail or null if the request has finished or the
+     * resource has not been downloaded.
+     */
+    @WorkerThread
+    @Nullable
+    private Bitmap decodeThumbnail(Request request) {
+        if (request.getStatus() != null) {
+            return null;
+        }
 
-            return downloader;
-        } catch (InstantiationException | IllegalAccessException e) {
-            e.printStackTrace();
+        File file = HttpDownloader.getDiskCache(request.mApplicationContext)
+                .get(request.toFileName());
+        if (file == null) {
             return null;
         }
+
+        Bitmap thumbnail = ((BitmapDecoder) request.getResourceDecoder())
+                .decode(file,
+                        request.mThumbnailWidth,
+                        request.mThumbnailHeight,
+                        request.mConfig);
+        if (thumbnail != null) {
+            mBitmapPool.acquire(thumbnail);
+            if (MemoryPolicy.writeToCache(request.mMemoryPolicy)) {
+                mCache.set(request.getThumbnailMemoryCacheKey(), thumbnail);
+            }
+        }
+
+        return thumbnail;
+    }
+
+    /**
+     * Returns the memory cached resource for the passed request. Only bitmap
+     * resources destined for a bitmap decoding target are memory cached.
+     *
+     * @param request A request.
+     * @return The cached resource or null if the resource is not cached.
+     */
+    @Nullable
+    private Object getCachedResource(Request request) {
+        return isMemoryCacheable(request)
+               ? mCache.get(request.getMemoryCacheKey())
+               : null;
+    }
+
+    /**
+     * Adds a decoded resource to the memory cache if the request memory
+     * policy allows it. This method is called from the background decoding
+     * thread.
+     *
+     * @param request  The request that produced the resource.
+     * @param resource The decoded resource.
+     */
+    void cacheResource(Request request, Object resource) {
+        if (resource instanceof Bitmap
+                && isMemoryCacheable(request)
+                && MemoryPolicy.writeToCache(request.mMemoryPolicy)) {
+            mCache.set(request.getMemoryCacheKey(), (Bitmap) resource);
+        }
+    }
+
+    /**
+     * Helper that determines if the passed request produces a resource that
+     * can be held in the memory cache.
+     *
+     * @param request A request.
+     * @return {@code true} if the request resource can be memory cached,
+     * {@code false} if not.
+     */
+    private boolean isMemoryCacheable(Request request) {
+        return mCache != null
+                && request.mTarget != null
+                && request.getResourceDecoder() instanceof BitmapDecoder;
+    }
+
+    /**
+     * Acquires a downloader for the request's download policy (or the
+     * default policy) and attaches the request. An idle pooled downloader is
+     * reused when one is available; otherwise a new instance is created.
+     *
+     * @return A downloader instance bound to the specified request.
+     */
+    private Downloader getDownloader(Request request) {
+        DownloadPolicy policy = request.getDownloadPolicy() != null
+                                ? request.getDownloadPolicy()
+                                : mDownloadPolicy;
+
+        ArrayDeque<AbstractDownloader> pool = mDownloaderPools.get(policy);
+        Downloader downloader = pool != null ? pool.poll() : null;
+
+        if (downloader == null) {
+            downloader = createDownloader(policy, request);
+        }
+
+        if (downloader instanceof AbstractDownloader) {
+            ((AbstractDownloader) downloader).mDownloadPolicy = policy;
+        }
+
+        // Note that there is no way to verify if the registered downloader
+        // type matches request type.
+        //noinspection unchecked
+        downloader.setRequest(request);
+
+        return downloader;
+    }
+
+    /**
+     * Constructs a new downloader for the passed policy. A registered
+     * factory is always preferred; a registered downloader class is only
+     * used for policies without a factory and, failing that, the application
+     * DownloadFactory is used.
+     *
+     * @param policy  The download policy.
+     * @param request The request that will be attached to the downloader.
+     * @return A new downloader instance.
+     */
+    private Downloader createDownloader(
+            DownloadPolicy policy,
+            Request request) {
+        DownloaderFactory factory = mFactories.get(policy);
+        if (factory != null) {
+            return Preconditions.checkNotNull(
+                    factory.create(),
+                    "Downloader factory returned null for " + policy);
+        }
+
+        if (mDownloaderClass != null) {
+            try {
+                return (Downloader) mDownloaderClass.newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException(
+                        "Unable to instantiate " + mDownloaderClass, e);
+            }
+        }
+
+        return getFactoryDownloader(policy, request);
     }
 
     /**
@@ -348,6 +897,35 @@ public class DownloadManager {
         return DownloadFactory.getDownloader(policy, mContext, request);
     }
 
+    /**
+     * Called by a downloader once it has delivered its result to a request
+     * so that the downloader can be reused by a later request with the same
+     * download policy. The downloader is reset before being pooled.
+     * Cancelled downloaders are never released since their background work
+     * may still be running.
+     *
+     * @param downloader A downloader that has finished its request.
+     */
+    @MainThread
+    void releaseDownloader(AbstractDownloader downloader) {
+        DownloadPolicy policy = downloader.mDownloadPolicy;
+        if (policy == null) {
+            return;
+        }
+
+        downloader.reset();
+
+        ArrayDeque<AbstractDownloader> pool = mDownloaderPools.get(policy);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            mDownloaderPools.put(policy, pool);
+        }
+
+        if (pool.size() < MAX_POOLED_DOWNLOADERS) {
+            pool.offer(downloader);
+        }
+    }
+
     /**
      * Executes a synchronous download.
      *
@@ -432,7 +1010,9 @@ public class DownloadManager {
     /**
      * Convenience method that cancels a request that was specifically started
      * with into(ImageView imageView). Requests started with custom Targets are
-     * required to handle their own cancel handling.
+     * required to handle their own cancel handling. A request that is still
+     * waiting for the view to be laid out (see RequestCreator.into()) is
+     * dropped before it is dispatched.
      *
      * @param imageView An image view that was used to request using the
      *                  into(ImageView imageView Fluent interface method.
@@ -441,6 +1021,11 @@ public class DownloadManager {
      */
     public boolean cancelRequest(ImageView imageView) {
         Utils.assertMainThread();
+        if (ViewTarget.cancelPendingSize(imageView)) {
+            // The request was never dispatched.
+            return true;
+        }
+
         Request request = ImageViewTarget.getRequest(imageView);
         if (request != null) {
             // cancel the request.
@@ -452,19 +1037,174 @@ public class DownloadManager {
         }
     }
 
+    /**
+     * Changes the scheduling priority of the request (if any) that is
+     * currently loading into the passed image view.
+     *
+     * @param imageView An image view target.
+     * @param priority  The new priority.
+     * @return {@code true} if the view had a request; {@code false} if not.
+     */
+    public boolean setPriority(ImageView imageView, Priority priority) {
+        Utils.assertMainThread();
+        Request request = ImageViewTarget.getRequest(imageView);
+        if (request != null) {
+            request.setPriority(priority);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Pauses all running requests with the specified tag. Downloads that
+     * have not yet started remain queued without consuming a thread until
+     * the tag is resumed. Requests (including prefetches) with this tag that
+     * are dispatched while the tag is paused are also paused.
+     *
+     * @param tag A request tag (see RequestCreator.tag()).
+     */
+    @MainThread
+    public void pauseTag(@NonNull String tag) {
+        Utils.assertMainThread();
+        if (mPausedTags.add(tag)) {
+            int count = pausePrefetches(tag);
+            for (Request request : mRequestManager.getTaggedRequests(tag)) {
+                if (request.pause()) {
+                    count++;
+                }
+            }
+
+            if (mLogging) {
+                Log.d(TAG, "Paused " + count + " requests with tag " + tag);
+            }
+        }
+    }
+
+    /**
+     * Resumes all requests with the specified tag that were paused by
+     * pauseTag().
+     *
+     * @param tag A request tag (see RequestCreator.tag()).
+     */
+    @MainThread
+    public void resumeTag(@NonNull String tag) {
+        Utils.assertMainThread();
+        if (mPausedTags.remove(tag)) {
+            int count = resumePrefetches(tag);
+            for (Request request : mRequestManager.getTaggedRequests(tag)) {
+                if (request.resume()) {
+                    count++;
+                }
+            }
+
+            if (mLogging) {
+                Log.d(TAG, "Resumed " + count + " requests with tag " + tag);
+            }
+        }
+    }
+
+    /**
+     * Cancels all requests (paused or not) with the specified tag.
+     *
+     * @param tag A request tag (see RequestCreator.tag()).
+     * @return The number of cancelled requests.
+     */
+    @MainThread
+    public int cancelTag(@NonNull String tag) {
+        Utils.assertMainThread();
+        List<Request> requests = mRequestManager.getTaggedRequests(tag);
+        for (Request request : requests) {
+            cancelRequest(request);
+        }
+
+        return requests.size();
+    }
+
     /**
      * Cancels the passed asynchronous download request. Since the
      * DownloadManager does not currently maintain a list of running requests
      * that needs to be updated, the cancel operation is simply delegate to the
-     * request to perform.
+     * request to perform. A download that is nearly complete (see
+     * setCancelGracePolicy()) is not aborted; the request is instead detached
+     * from its target and the download finishes into the disk cache so that
+     * it does not need to be downloaded again.
      *
      * @param request The request to cancel.
      */
     public void cancelRequest(Request request) {
         Utils.assertMainThread();
+        if (isNearlyComplete(request) && request.detach()) {
+            if (mLogging) {
+                Log.d(TAG, "cancelRequest: detached nearly complete download "
+                        + request.getBytesDownloaded() + "/"
+                        + request.getContentLength() + " bytes");
+            }
+            return;
+        }
+
         request.cancel();
     }
 
+    /**
+     * Sets the thresholds used by cancelRequest() to decide if a running
+     * download should be allowed to finish into the disk cache rather than
+     * being aborted. A download qualifies if either threshold is met.
+     *
+     * @param minProgress       Minimum fraction of the content length that
+     *                          must have been downloaded (a value greater
+     *                          than 1 disables this threshold).
+     * @param maxRemainingBytes Maximum number of bytes that may remain to be
+     *                          downloaded (a negative value disables this
+     *                          threshold).
+     */
+    public void setCancelGracePolicy(
+            float minProgress, long maxRemainingBytes) {
+        mGraceMinProgress = minProgress;
+        mGraceMaxRemainingBytes = maxRemainingBytes;
+    }
+
+    /**
+     * Determines if the passed request's download is close enough to
+     * completion that it should be allowed to finish when cancelled. Downloads
+     * with an unknown content length always abort.
+     *
+     * @param request A request.
+     * @return {@code true} if the download should be allowed to finish;
+     * {@code false} if it should be aborted.
+     */
+    private boolean isNearlyComplete(Request request) {
+        long downloaded = request.getBytesDownloaded();
+        long contentLength = request.getContentLength();
+        if (downloaded <= 0 || contentLength <= 0) {
+            return false;
+        }
+
+        long remaining = contentLength - downloaded;
+        return remaining <= mGraceMaxRemainingBytes
+                || downloaded >= contentLength * mGraceMinProgress;
+    }
+
+    /**
+     * Called by the HttpDownloader when a cancelled download has been
+     * aborted to account for the discarded bytes.
+     *
+     * @param request The cancelled request.
+     */
+    void onDownloadAborted(Request request) {
+        mWastedBytes.addAndGet(request.getBytesDownloaded());
+    }
+
+    /**
+     * Returns the total number of downloaded bytes that were discarded by
+     * cancelled downloads during this session.
+     *
+     * @return The number of wasted bytes.
+     */
+    public long getWastedBytes() {
+        return mWastedBytes.get();
+    }
+
     /**
      * Terminates DownloadManger and closes the HttpDownloader response cache.
      * The current implementation does not maintain a list of running downloader
@@ -475,10 +1215,12 @@ public class DownloadManager {
         // Shutdown the request manager (cancels all running requests).
         mRequestManager.shutdown();
 
-        // Shutdown the executor service.
+        // Shutdown the executor services.
         if (mExecutor != null && !mExecutor.isShutdown()) {
             mExecutor.shutdownNow();
         }
+        mDecodeExecutor.shutdownNow();
+        mThumbnailExecutor.shutdownNow();
 
         // Shutdown the HttpDownloader (closes the response cache).
         HttpDownloader.shutdown();
@@ -519,30 +1261,181 @@ public class DownloadManager {
     }
 
     /**
-     * Installs the default downloader class to use for all requests.
+     * Installs the default downloader class to use for all requests whose
+     * download policy has no registered factory. Prefer registering a
+     * DownloaderFactory which avoids reflective instantiation.
      *
      * @param downloaderClass A Downloader interface implementation.
      */
     public void registerDownloader(
             Class<? extends Downloader> downloaderClass) {
         mDownloaderClass = downloaderClass;
+        mDownloaderPools.clear();
     }
 
     /**
-     * Clears all cached items marked with the specified tag.
-     * @param tag A tag string
+     * Installs the factory used to construct downloaders for the specified
+     * download policy. Any pooled downloaders for that policy are discarded.
+     *
+     * @param policy  A download policy.
+     * @param factory A factory that creates downloaders for the policy.
      */
-    public static int clearCache(String tag) {
-        int count = CacheUtils.clearTaggedFiles(get().mContext, tag);
-        Log.d(TAG, "Cleared " + count + " files with tag " + tag);
-        return count;
+    @MainThread
+    public void registerDownloader(
+            @NonNull DownloadPolicy policy,
+            @NonNull DownloaderFactory factory) {
+        Preconditions.checkNotNull(policy, "Download policy must be non-null");
+        Preconditions.checkNotNull(factory, "Factory must be non-null");
+        mFactories.put(policy, factory);
+        mDownloaderPools.remove(policy);
     }
 
     /**
-     * All memory cache implementations must support this interface. (For future
-     * versions)
+     * Clears all cached items marked with the specified tag. Memory cache
+     * entries are removed immediately while the tagged disk cache entries
+     * are removed on a background thread. The optional listener is called on
+     * the main thread once all tagged items have been removed.
+     *
+     * @param tag      A tag string
+     * @param listener An optional completion listener.
+     */
+    @MainThread
+    public static void clearCache(
+            final String tag,
+            @Nullable final OnCacheClearedListener listener) {
+        Utils.assertMainThread();
+        final DownloadManager manager = get();
+
+        if (manager.mCache != null) {
+            manager.mCache.clearKeyPrefix(
+                    Request.getMemoryCacheKeyPrefix(tag));
+        }
+
+        manager.mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int count =
+                        HttpDownloader.clearCache(manager.mContext, tag);
+                Log.d(TAG, "Cleared " + count + " files with tag " + tag);
+
+                if (listener != null) {
+                    manager.mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onCacheCleared(tag, count);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Listener interface for clearCache() completion notifications.
+     */
+    public interface OnCacheClearedListener {
+        /**
+         * Called on the main thread once all cached items with the specified
+         * tag have been removed.
+         *
+         * @param tag   The cleared tag.
+         * @param count The number of removed disk cache entries.
+         */
+        void onCacheCleared(String tag, int count);
+    }
+
+    /**
+     * All memory cache implementations must support this interface.
+     * Implementations must be thread-safe.
      */
-    @SuppressWarnings("unused")
     public interface Cache {
+        /**
+         * Returns the bitmap for the specified key or null if not cached.
+         */
+        @Nullable
+        Bitmap get(@NonNull String key);
+
+        /**
+         * Adds or replaces the bitmap for the specified key.
+         */
+        void set(@NonNull String key, @NonNull Bitmap bitmap);
+
+        /**
+         * Returns the current size of the cache in bytes.
+         */
+        int size();
+
+        /**
+         * Returns the maximum size of the cache in bytes.
+         */
+        int maxSize();
+
+        /**
+         * Removes all cached bitmaps.
+         */
+        void clear();
+
+        /**
+         * Removes all cached bitmaps whose keys start with the passed prefix.
+         */
+        void clearKeyPrefix(@NonNull String prefix);
+
+        /**
+         * Returns the largest cached bitmap of any size of a resource or
+         * null if no size of the resource is cached.
+         *
+         * @param resourcePrefix The prefix shared by the keys of all sizes
+         *                       of the resource (see
+         *                       Request.getResourceMemoryCacheKeyPrefix()).
+         */
+        @Nullable
+        Bitmap getResource(@NonNull String resourcePrefix);
+    }
+
+    /**
+     * Performs a prefetch download on the I/O executor and posts the result
+     * to the request on the main thread.
+     */
+    private final class PrefetchRunnable
+            implements Runnable, PriorityExecutor.Prioritized {
+        /**
+         * The prefetch request.
+         */
+        private final Request mRequest;
+
+        /**
+         * Constructor.
+         *
+         * @param request The prefetch request.
+         */
+        PrefetchRunnable(Request request) {
+            mRequest = request;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mRequest.getPriority();
+        }
+
+        @Override
+        public void run() {
+            Uri uri = null;
+            if (!mRequest.isCancelled()) {
+                try {
+                    uri = HttpDownloader.download(mRequest);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Prefetch failed: " + e);
+                }
+            }
+
+            final Uri result = uri;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mPrefetchTasks.remove(mRequest);
+                    mRequest.onPrefetchCompleted(result);
+                }
+            });
+        }
     }
 }
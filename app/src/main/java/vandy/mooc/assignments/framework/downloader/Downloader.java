@@ -23,6 +23,24 @@ public interface Downloader<R> {
      */
     void cancel();
 
+    /**
+     * Pauses the download. A download that has not yet started should not
+     * be started until resume() is called. A download that is already in
+     * progress may be allowed to complete.
+     */
+    void pause();
+
+    /**
+     * Resumes a download that was paused by calling pause().
+     */
+    void resume();
+
+    /**
+     * Called when the priority of the attached request has changed so that
+     * a download that has not yet started can be re-queued.
+     */
+    void onPriorityChanged();
+
     /**
      * Sets the request and context for this download handler.
      *
@@ -0,0 +1,18 @@
+package vandy.mooc.assignments.framework.downloader;
+
+/**
+ * Factory interface used by the DownloadManager to construct Downloader
+ * implementations without reflection. A factory is registered for each
+ * {@link DownloadPolicy} by calling {@link
+ * DownloadManager#registerDownloader(DownloadPolicy, DownloaderFactory)}.
+ * Since finished downloaders are pooled and reused, a factory is only called
+ * when no idle downloader is available for its policy.
+ */
+public interface DownloaderFactory {
+    /**
+     * Creates a new downloader instance.
+     *
+     * @return A new Downloader implementation instance.
+     */
+    Downloader create();
+}
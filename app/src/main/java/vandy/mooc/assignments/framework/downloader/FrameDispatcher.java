@@ -0,0 +1,120 @@
+package vandy.mooc.assignments.framework.downloader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers completed download results to the main thread in batches that are
+ * aligned with display frames. Rather than posting one main thread message
+ * per result, background threads add results to a queue that is drained by a
+ * single Choreographer frame callback. Each frame only spends up to
+ * FRAME_BUDGET_NANOS delivering results (at least one result is always
+ * delivered); any remaining results are rolled over to the next frame so that
+ * a burst of completed downloads can not cause the UI to skip frames.
+ * <p/>
+ * All methods except doFrame() are thread-safe.
+ */
+final class FrameDispatcher implements Choreographer.FrameCallback {
+    /**
+     * Maximum time spent delivering results during a single frame.
+     */
+    private static final long FRAME_BUDGET_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(4);
+
+    /**
+     * The singleton instance.
+     */
+    private static final FrameDispatcher sInstance = new FrameDispatcher();
+
+    /**
+     * Results waiting to be delivered.
+     */
+    private final ConcurrentLinkedQueue<Runnable> mPending =
+            new ConcurrentLinkedQueue<>();
+
+    /**
+     * Set while a frame callback is pending (or about to be posted).
+     */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    /**
+     * Handler used to register the frame callback from the main thread (the
+     * Choreographer instance is bound to the main thread looper).
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Posts the frame callback (always runs on the main thread).
+     */
+    private final Runnable mScheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(FrameDispatcher.this);
+        }
+    };
+
+    /**
+     * Private constructor for singleton.
+     */
+    private FrameDispatcher() {
+    }
+
+    /**
+     * @return The singleton dispatcher.
+     */
+    static FrameDispatcher get() {
+        return sInstance;
+    }
+
+    /**
+     * Queues a result delivery runnable to be run on the main thread during
+     * the next frame that has enough budget left.
+     *
+     * @param delivery A runnable that delivers a result.
+     */
+    void post(Runnable delivery) {
+        mPending.add(delivery);
+        if (mScheduled.compareAndSet(false, true)) {
+            mHandler.post(mScheduleRunnable);
+        }
+    }
+
+    /**
+     * Choreographer frame callback that delivers queued results until the
+     * frame budget has been used up.
+     *
+     * @param frameTimeNanos The frame start time (not used).
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long deadline = SystemClock.elapsedRealtimeNanos() + FRAME_BUDGET_NANOS;
+
+        Runnable delivery;
+        while ((delivery = mPending.poll()) != null) {
+            delivery.run();
+            if (SystemClock.elapsedRealtimeNanos() >= deadline) {
+                break;
+            }
+        }
+
+        if (!mPending.isEmpty()) {
+            // Roll the remaining results over to the next frame.
+            Choreographer.getInstance().postFrameCallback(this);
+            return;
+        }
+
+        // Allow the next post() to schedule a frame. A result that was added
+        // after the queue was found empty but before the flag was cleared
+        // would otherwise be stranded, so check again.
+        mScheduled.set(false);
+        if (!mPending.isEmpty() && mScheduled.compareAndSet(false, true)) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -5,21 +5,35 @@ import android.content.Context;
 import android.net.Uri;
 import android.net.http.HttpResponseCache;
 import android.os.Build;
+import android.support.annotation.WorkerThread;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import vandy.mooc.assignments.framework.utils.CacheUtils;
 import vandy.mooc.assignments.framework.utils.FileUtils;
 import vandy.mooc.assignments.framework.utils.Preconditions;
 import vandy.mooc.assignments.framework.utils.UriUtils;
+import vandy.mooc.assignments.framework.utils.Utils;
 
 /**
  * A utility class (https://en.wikipedia.org/wiki/Utility_class) that supports
@@ -58,15 +72,22 @@ public final class HttpDownloader {
      */
     private static final String RESPONSE_SOURCE = "X-Android-Response-Source";
 
-    /**
-     * Size of each file I/O operation.
-     */
-    private static final int BUFFER_LENGTH = 1024;
     private static final Object sLock = new Object();
     /**
      * Http response cache and sLock object used during cache creation.
      */
     private static volatile Object sResponseCache;
+    /**
+     * Size bounded LRU cache of downloaded files (created on first use).
+     */
+    private static volatile DiskCache sDiskCache;
+    /**
+     * Downloads that are currently in progress keyed by disk cache key. The
+     * concurrent map only locks the hash bin of the key being updated so
+     * that downloads of different resources never contend.
+     */
+    private static final ConcurrentHashMap<String, InFlightDownload>
+            sInFlight = new ConcurrentHashMap<>();
 
     /**
      * Utility classes should always be final and have a private constructor.
@@ -77,12 +98,71 @@ public final class HttpDownloader {
     /**
      * Loads the requested resource either from the HTTP cache or from the
      * network. In either case, the data is copied to a local file on the
-     * device.
+     * device. If the same resource is already being downloaded for another
+     * request, the calling thread waits (without polling) until that
+     * download has completed or this request has been cancelled.
      *
      * @param request The download request.
      * @return The cached URL if the download is successful; null otherwise.
      */
     public static Uri download(Request request) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Uri[] result = new Uri[1];
+
+        download(request, new Callback() {
+            @Override
+            public void onDownloadCompleted(Uri uri) {
+                result[0] = uri;
+                done.countDown();
+            }
+        });
+
+        if (done.getCount() == 0) {
+            return result[0];
+        }
+
+        // Attached to an in-flight download; cancelling this request wakes
+        // the waiting thread.
+        boolean registered = request.setCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        if (registered) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                request.setCancelAction(null);
+            }
+        }
+
+        if (request.isCancelled()) {
+            Log.d(TAG, "HTTP download was cancelled.");
+            return null;
+        }
+
+        return result[0];
+    }
+
+    /**
+     * Asynchronous version of download(Request). If the resource is not
+     * already being downloaded, the download is performed on the calling
+     * thread and the callback is invoked before this method returns.
+     * Otherwise, the request is attached to the in-flight download and this
+     * method returns immediately so that the calling thread is free to
+     * perform other work; the callback is then invoked on the thread that
+     * performs the download once it has completed.
+     *
+     * @param request  The download request.
+     * @param callback Invoked exactly once with the cached URL or with null
+     *                 if the download failed or the request was cancelled.
+     */
+    public static void download(Request request, Callback callback) {
         // Sanity check, although theoretically the request can be recycled
         // in the MainThread as a callback from a RecyclerViewHolder recycle
         // event.
@@ -92,27 +172,86 @@ public final class HttpDownloader {
         // HttpResponseCache was only added in API 14. caching supported
         // added in API 13
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-            //installCacheIfNeeded(request.mContext);
+            //installCacheIfNeeded(request.mApplicationContext);
         }
 
         // Cancel checkpoint.
         if (request.isCancelled()) {
             Log.d(TAG, "HTTP download was cancelled.");
-            return null;
+            callback.onDownloadCompleted(null);
+            return;
+        }
+
+        DiskCache diskCache = getDiskCache(request.mApplicationContext);
+        String key = request.toFileName();
+
+        // Coalesce concurrent requests for the same cache key: the first
+        // request registers an in-flight download and performs it while all
+        // later requests attach their callbacks to it and receive the same
+        // result. If the running download is aborted because its own request
+        // was cancelled, each attached request that is still active is
+        // resubmitted to the I/O executor where one of them takes over.
+        while (true) {
+            InFlightDownload inFlight = new InFlightDownload();
+            InFlightDownload running = sInFlight.putIfAbsent(key, inFlight);
+
+            if (running == null) {
+                Uri result = null;
+                try {
+                    result = downloadToCache(request, diskCache, key);
+                } catch (RuntimeException e) {
+                    // The callback must always be called.
+                    Log.w(TAG, "HTTP download encountered an exception:" + e);
+                } finally {
+                    sInFlight.remove(key, inFlight);
+                    inFlight.complete(
+                            result,
+                            result == null && request.isCancelled(),
+                            DownloadManager.get().mExecutor);
+                }
+                callback.onDownloadCompleted(result);
+                return;
+            }
+
+            if (running.attach(request, callback)) {
+                if (DownloadManager.get().isLoggingEnabled()) {
+                    Log.d(TAG, "Attaching to in-flight download of "
+                            + request);
+                }
+                return;
+            }
+
+            // The running download completed before the callback could be
+            // attached.
+            if (!running.mAborted) {
+                callback.onDownloadCompleted(running.mResult);
+                return;
+            }
         }
+    }
 
+    /**
+     * Returns the cached file for the passed request or downloads the
+     * resource into the disk cache. Only one thread at a time calls this
+     * method for any given cache key.
+     *
+     * @param request   The download request.
+     * @param diskCache The disk cache.
+     * @param key       The request's disk cache key.
+     * @return The cached URL if the download is successful; null otherwise.
+     */
+    private static Uri downloadToCache(Request request,
+                                       DiskCache diskCache,
+                                       String key) {
         /**
          * Check if the request URL has recently been saved to disk and if so
          * and the network policy allows caching, then simply return the
          * existing cached file.
          */
         if (NetworkPolicy.readFromCache(request.mNetworkPolicy)) {
-            File file =
-                    Preconditions.checkNotNull(
-                            CacheUtils.getCacheFile(
-                                    request.mContext, request.toFileName()));
+            File file = diskCache.get(key);
 
-            if (file.isFile()) {
+            if (file != null) {
                 if (DownloadManager.get().isLoggingEnabled()) {
                     Log.d(TAG, "Content loaded from LOCAL CACHE"
                             + " (size = "
@@ -129,138 +268,214 @@ public final class HttpDownloader {
             return null;
         }
 
-        // Check if this request has a decoder and is able to pre-validate
-        // stream content, then open the stream and pass it to the decoder
-        // to pre-validate.
-        if (request.getResourceDecoder() != null &&
-                request.getResourceDecoder()
-                        .canValidateContent(InputStream.class)) {
-            // Open the input stream and pass to decoder to pre-validate.
-            try (final InputStream inputStream =
-                         getInputStream(request.mContext,
-                                        request.mUri,
-                                        request.mNetworkPolicy)) {
-                // See if the request target can handle this stream.
-                Preconditions.checkNotNull(inputStream);
-                if (!request.getResourceDecoder().isContentValid(inputStream)) {
-                    Log.w(TAG,
-                          "Decoder reported invalid content for " + request);
-                    return null;
-                }
-            } catch (Exception e) {
-                Log.w(TAG,
-                      "HTTP download was unable to open an input stream: " + e);
-                return null;
+        File tempFile = CacheUtils.getNewTempFile(request.mApplicationContext);
+
+        // Get the content of the resource at the url and save it to a
+        // temporary file which is then moved into the disk cache. Since
+        // concurrent requests for the same key are coalesced, no other
+        // download can replace or delete the cached file while it is being
+        // written. The disk cache evicts least recently used entries when its
+        // size limit is exceeded.
+        try (final InputStream inputStream =
+                     getInputStream(request,
+                                    request.mUri,
+                                    request.mNetworkPolicy);
+             final RandomAccessFile outputFile =
+                     new RandomAccessFile(tempFile, "rw")) {
+            Preconditions.checkNotNull(inputStream);
+            copyStream(inputStream, outputFile, request);
+        } catch (Exception e) {
+            if (request.isCancelled()) {
+                // Record how long the cancelled download held this thread
+                // and how many bytes were wasted.
+                DownloadManager.get().onDownloadAborted(request);
+                Log.d(TAG, "HTTP download was cancelled; thread released "
+                        + request.getMillisSinceCancelled()
+                        + "ms after cancel (" + request.getBytesDownloaded()
+                        + " bytes discarded).");
+            } else {
+                Log.w(TAG, "HTTP download encountered an exception:" + e);
+                Log.d(TAG, "Download failed for " + request.mUri.toString());
             }
+
+            // Make sure any partially written temp file is deleted.
+            FileUtils.safeDelete(request.mApplicationContext, tempFile);
+            return null;
+        } finally {
+            request.setCancelAction(null);
         }
 
-        // Cancel checkpoint.
-        if (request.isCancelled()) {
-            Log.d(TAG, "HTTP download was cancelled.");
+        // Validate the downloaded content before committing it to the disk
+        // cache. This is done on the local temporary file rather than on a
+        // separate network stream so that each resource is only fetched once.
+        if (!isContentValid(request, tempFile)) {
+            Log.w(TAG, "Decoder reported invalid content for " + request);
+            FileUtils.safeDelete(request.mApplicationContext, tempFile);
             return null;
         }
 
-        /**
-         * Get the cache file for this source uri (may or may not already
-         * exist).
-         */
-        File file =
-                Preconditions.checkNotNull(
-                        CacheUtils.getCacheFile(
-                                request.mContext,
-                                request.toFileName()));
-
-        // Always delete any existing cached download here so we can gracefully
-        // handle concurrent downloads of the same resource by simply renaming
-        // the download temp file to the cache file. If the rename fails, it
-        // simply means that a concurrent download for the same resource
-        // completed before this one and we can assume that the resulting
-        // cached file will satisfy this request as well.
-        synchronized (sLock) {
-            //noinspection ResultOfMethodCallIgnored
-            file.delete();
+        File file = diskCache.put(
+                key, tempFile, request.mTag, request.buildEncodedUri());
+        if (file == null) {
+            FileUtils.safeDelete(request.mApplicationContext, tempFile);
+            return null;
         }
 
-        File tempFile = CacheUtils.getNewTempFile(request.mContext);
+        // Return the cached file's uri.
+        return UriUtils.getUriFromFile(file);
+    }
 
-        // Get the content of the resource at the url and save it
-        // to an output file. Note that the size of the storage location of
-        // output files is not managed by this Http response cache. The app
-        // is responsible for managing these output resources.
-        try (final InputStream inputStream =
-                     getInputStream(request.mContext,
-                                    request.mUri,
-                                    request.mNetworkPolicy);
-             final OutputStream outputStream = new FileOutputStream(tempFile)) {
-            copyStream(inputStream, outputStream, request);
-            if (!tempFile.renameTo(file)) {
-                Log.w(TAG,
-                      "HTTP download: cache file already created by a "
-                              + "duplicate concurrent download");
-            }
+    /**
+     * Passes the downloaded file to the request decoder (if any) to
+     * validate its contents. Decoders that can only validate streams are
+     * passed a stream opened on the local file.
+     *
+     * @param request The download request.
+     * @param file    The downloaded file.
+     * @return {@code true} if the content is valid or the decoder does not
+     * validate content; {@code false} if not.
+     */
+    private static boolean isContentValid(Request request, File file) {
+        Decoder decoder = request.getResourceDecoder();
+        if (decoder == null) {
+            return true;
+        }
 
-            // Now cleanup the temp file.
-            FileUtils.safeDelete(request.mContext, tempFile);
+        if (decoder.canValidateContent(File.class)) {
+            return decoder.isContentValid(file);
+        }
 
-            // Return the cached file's uri.
-            return UriUtils.getUriFromFile(file);
-        } catch (IOException e) {
-            Log.w(TAG, "HTTP download encountered an IOException:" + e);
+        if (decoder.canValidateContent(InputStream.class)) {
+            try (final InputStream inputStream = new FileInputStream(file)) {
+                return decoder.isContentValid(inputStream);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to validate downloaded content: " + e);
+                return false;
+            }
         }
 
-        Log.d(TAG, "Download failed for " + request.mUri.toString());
+        return true;
+    }
 
-        // At this point the above block must have thrown an exception.
-        // Make sure any partially written cache file is deleted.
-        FileUtils.safeDelete(request.mContext, file);
+    /**
+     * Returns the disk cache used to store downloaded files, opening it on
+     * first use. The cache size limit is calculated from the storage
+     * available for the cache directory.
+     *
+     * @param context Any context.
+     * @return The disk cache.
+     */
+    static DiskCache getDiskCache(Context context) {
+        if (sDiskCache == null) {
+            synchronized (sLock) {
+                if (sDiskCache == null) {
+                    File cacheDir = CacheUtils.createCacheDir(context);
+                    sDiskCache = DiskCache.open(
+                            cacheDir,
+                            CacheUtils.calculateDiskCacheSize(cacheDir));
+                }
+            }
+        }
 
-        return null;
+        return sDiskCache;
     }
 
     /**
-     * Closes the HTTP response cache.
+     * Closes the HTTP response cache and the disk cache.
      */
     public static void shutdown() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
             ResponseCache.close(sResponseCache);
         }
+
+        synchronized (sLock) {
+            if (sDiskCache != null) {
+                sDiskCache.close();
+                sDiskCache = null;
+            }
+        }
     }
 
     /**
-     * Clears the cache directory contents and deletes the directory.
+     * Clears all disk cache entries.
      *
      * @param context Any context.
      */
     public static void clearCache(Context context) {
-        FileUtils.deleteDirectory(context,
-                                  CacheUtils.getCacheDirPathName(context));
+        getDiskCache(context).clear();
     }
 
     /**
-     * Copy the contents of the @a inputStream to the @a outputStream.
+     * Removes all disk cache entries that were downloaded by requests with
+     * the specified tag. Only the entries recorded for the tag in the disk
+     * cache tag index are touched. This method performs disk I/O and should
+     * not be called from the main thread.
      *
-     * @param inputStream  An input stream.
-     * @param outputStream An output stream.
-     * @param request      The download request.
+     * @param context Any context.
+     * @param tag     The tag to match.
+     * @return The number of removed entries.
+     */
+    @WorkerThread
+    public static int clearCache(Context context, String tag) {
+        return getDiskCache(context).removeTag(tag);
+    }
+
+    /**
+     * Copy the contents of the @a inputStream to the @a outputFile. The data
+     * is read through a channel into a pooled direct buffer that is only
+     * written to the file when full so that each write system call moves
+     * FileUtils.TRANSFER_BUFFER_LENGTH bytes. When the content length is
+     * known, the output file is preallocated to that length and truncated
+     * to the number of bytes actually received.
+     *
+     * @param inputStream An input stream.
+     * @param outputFile  An output file.
+     * @param request     The download request.
      * @throws IOException
      */
     private static void copyStream(
             InputStream inputStream,
-            OutputStream outputStream,
+            RandomAccessFile outputFile,
             Request request)
             throws IOException {
-        byte[] buffer = new byte[BUFFER_LENGTH];
+        long contentLength = inputStream instanceof ConnectionInputStream
+                             ? ((ConnectionInputStream) inputStream)
+                                     .mContentLength
+                             : -1;
+        if (contentLength > 0) {
+            outputFile.setLength(contentLength);
+        }
 
-        for (int n; (n = inputStream.read(buffer)) >= 0; ) {
-            // Cancel checkpoint.
-            if (request.isCancelled()) {
-                throw new InterruptedIOException("Download interrupted");
+        // The channel is not closed since that would close the input stream
+        // which is owned by the caller.
+        ReadableByteChannel inputChannel = Channels.newChannel(inputStream);
+        FileChannel outputChannel = outputFile.getChannel();
+        ByteBuffer buffer = FileUtils.acquireBuffer();
+        long bytesDownloaded = 0;
+
+        try {
+            int read;
+            while ((read = inputChannel.read(buffer)) >= 0) {
+                // Cancel checkpoint.
+                if (request.isCancelled()) {
+                    throw new InterruptedIOException("Download interrupted");
+                }
+
+                bytesDownloaded += read;
+                request.setDownloadProgress(bytesDownloaded, contentLength);
+
+                if (!buffer.hasRemaining()) {
+                    FileUtils.writeFully(buffer, outputChannel);
+                }
             }
 
-            outputStream.write(buffer, 0, n);
+            FileUtils.writeFully(buffer, outputChannel);
+        } finally {
+            FileUtils.releaseBuffer(buffer);
         }
 
-        outputStream.flush();
+        // Remove any unused preallocated space.
+        outputChannel.truncate(outputChannel.position());
     }
 
     /**
@@ -269,13 +484,13 @@ public final class HttpDownloader {
      * since resource URLs do not use the HTTP cache, the networkPolicy is
      * ignored for these resources.
      *
-     * @param context A context.
+     * @param request The download request.
      * @param uri     A target URL.
      * @return An input stream.
      * @throws IOException
      */
     private static InputStream getInputStream(
-            Context context,
+            Request request,
             Uri uri,
             int networkPolicy)
             throws IOException {
@@ -284,30 +499,47 @@ public final class HttpDownloader {
             if (DownloadManager.get().isLoggingEnabled()) {
                 Log.d(TAG, "Loading image from application resources");
             }
-            return context.getContentResolver().openInputStream(uri);
+            return request.mApplicationContext.getContentResolver()
+                                              .openInputStream(uri);
         } else {
             // Normal URL.
-            return getNetworkInputStream(uri, networkPolicy);
+            return getNetworkInputStream(request, uri, networkPolicy);
         }
     }
 
     /**
      * Creates an HTTPUrlConnection and returns a input stream that can be used
      * to read the data contents at the specified URL. The data may either
-     * original from network or from a local disk cache.
+     * original from network or from a local disk cache. The connection is
+     * registered with the request so that cancelling the request disconnects
+     * it, immediately aborting a blocked connect or read.
      *
+     * @param request       The download request.
      * @param uri           The URL target resource.
      * @param networkPolicy The current network policy for this download.
      * @return An input stream that can be used to retrieve the data contents.
      */
     private static InputStream getNetworkInputStream(
+            Request request,
             Uri uri,
             int networkPolicy) throws IOException {
-        HttpURLConnection connection;
+        final HttpURLConnection connection;
 
         // Open a new connection.
         connection = openConnection(uri);
 
+        // Socket reads ignore thread interrupts so the only way to abort a
+        // blocked read is to disconnect the connection.
+        boolean registered = request.setCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                disconnect(connection);
+            }
+        });
+        if (!registered) {
+            throw new InterruptedIOException("Download cancelled");
+        }
+
         // Set the cache control based on the request network policy.
         if (NetworkPolicy.readFromCache(networkPolicy)) {
             connection.setUseCaches(true);
@@ -348,7 +580,35 @@ public final class HttpDownloader {
                     + contentLength + ")");
         }
 
-        return connection.getInputStream();
+        return new ConnectionInputStream(
+                connection.getInputStream(), contentLength);
+    }
+
+    /**
+     * Disconnects a connection that may be blocked in a connect or read
+     * call. Since disconnecting may perform network I/O (e.g. closing a TLS
+     * session), disconnects requested from the main thread are performed on
+     * a background thread.
+     *
+     * @param connection The connection to disconnect.
+     */
+    private static void disconnect(final HttpURLConnection connection) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection.disconnect();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Unable to disconnect: " + e);
+                }
+            }
+        };
+
+        if (Utils.isOnMainThread()) {
+            DisconnectExecutor.INSTANCE.execute(runnable);
+        } else {
+            runnable.run();
+        }
     }
 
     /**
@@ -452,4 +712,190 @@ public final class HttpDownloader {
             }
         }
     }
+
+    /**
+     * An HTTP connection input stream that also provides the content length
+     * reported by the connection's response header.
+     */
+    private static final class ConnectionInputStream
+            extends FilterInputStream {
+        /**
+         * The response content length or -1 if unknown.
+         */
+        final long mContentLength;
+
+        /**
+         * Constructor.
+         *
+         * @param inputStream   The connection input stream.
+         * @param contentLength The response content length or -1.
+         */
+        ConnectionInputStream(InputStream inputStream, long contentLength) {
+            super(inputStream);
+            mContentLength = contentLength;
+        }
+    }
+
+    /**
+     * Lazily created single thread executor used to disconnect connections
+     * for requests that are cancelled from the main thread.
+     */
+    private static final class DisconnectExecutor {
+        static final Executor INSTANCE = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Callback interface used by download(Request, Callback).
+     */
+    public interface Callback {
+        /**
+         * Called once the download has completed.
+         *
+         * @param uri The cached URL or null if the download failed or the
+         *            request was cancelled.
+         */
+        void onDownloadCompleted(Uri uri);
+    }
+
+    /**
+     * A download that is in progress and that any number of requests for the
+     * same cache key can attach to.
+     */
+    static class InFlightDownload {
+        /**
+         * The requests and callbacks attached to this download (set to null
+         * once the download has completed).
+         */
+        private List<Follower> mFollowers = new ArrayList<>();
+
+        /**
+         * The cached file uri or null if the download failed.
+         */
+        volatile Uri mResult;
+
+        /**
+         * Set if the download was abandoned because the request performing
+         * it was cancelled.
+         */
+        volatile boolean mAborted;
+
+        /**
+         * Attaches a request to this download.
+         *
+         * @param request  The attaching request.
+         * @param callback The callback to invoke once the download completes.
+         * @return {@code true} if attached; {@code false} if the download has
+         * already completed.
+         */
+        synchronized boolean attach(Request request, Callback callback) {
+            if (mFollowers == null) {
+                return false;
+            }
+
+            mFollowers.add(new Follower(request, callback));
+            return true;
+        }
+
+        /**
+         * Records the download result and notifies all attached requests on
+         * the calling thread. Attached requests that were cancelled receive a
+         * null result. If this download was aborted, the calling thread has
+         * been interrupted by the cancel, so attached requests that are still
+         * active are resubmitted to the passed executor (instead of being
+         * downloaded serially on this thread) and the first one to run
+         * restarts the download. A request that the executor rejects
+         * receives a null result.
+         *
+         * @param result   The cached file uri or null.
+         * @param aborted  {@code true} if the download was abandoned because
+         *                 its request was cancelled.
+         * @param executor The I/O executor used to restart the download.
+         */
+        void complete(Uri result, boolean aborted, Executor executor) {
+            List<Follower> followers;
+            synchronized (this) {
+                mResult = result;
+                mAborted = aborted;
+                followers = mFollowers;
+                mFollowers = null;
+            }
+
+            for (Follower follower : followers) {
+                if (follower.mRequest.isCancelled()) {
+                    follower.mCallback.onDownloadCompleted(null);
+                } else if (aborted) {
+                    try {
+                        executor.execute(new RestartRunnable(follower));
+                    } catch (RejectedExecutionException e) {
+                        Log.w(TAG, "Unable to restart download: " + e);
+                        follower.mCallback.onDownloadCompleted(null);
+                    }
+                } else {
+                    follower.mCallback.onDownloadCompleted(result);
+                }
+            }
+        }
+
+        /**
+         * Restarts the aborted download for an attached request. Called on
+         * an I/O executor thread.
+         *
+         * @param request  The attached request.
+         * @param callback The attached request's callback.
+         */
+        @WorkerThread
+        void restart(Request request, Callback callback) {
+            download(request, callback);
+        }
+
+        /**
+         * Restarts the aborted download for an attached request on the I/O
+         * executor, queued with the request's priority.
+         */
+        private final class RestartRunnable
+                implements Runnable, PriorityExecutor.Prioritized {
+            /**
+             * The attached request.
+             */
+            private final Follower mFollower;
+
+            /**
+             * Constructor.
+             *
+             * @param follower The attached request.
+             */
+            RestartRunnable(Follower follower) {
+                mFollower = follower;
+            }
+
+            @Override
+            public Priority getPriority() {
+                return mFollower.mRequest.getPriority();
+            }
+
+            @Override
+            public void run() {
+                restart(mFollower.mRequest, mFollower.mCallback);
+            }
+        }
+    }
+
+    /**
+     * A request attached to an in-flight download.
+     */
+    private static final class Follower {
+        final Request mRequest;
+        final Callback mCallback;
+
+        /**
+         * Constructor.
+         *
+         * @param request  The attached request.
+         * @param callback The callback to invoke once the download completes.
+         */
+        Follower(Request request, Callback callback) {
+            mRequest = request;
+            mCallback = callback;
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package vandy.mooc.assignments.framework.downloader;
 
 import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -41,6 +42,11 @@ import java.io.InputStream;
  * Additionally, this framework will properly handle recycled views so the
  * application should not clear recycled views before submitting new load
  * requests.
+ * <p/>
+ * A bitmap set by this target is reference counted by the DownloadManager
+ * BitmapPool. When the bitmap is later replaced in the image view by another
+ * bitmap or drawable, the reference is released so that the bitmap can be
+ * reused by subsequent decodes once it is no longer displayed or cached.
  */
 public class ImageViewTarget extends ViewTarget<ImageView, Bitmap> {
     /**
@@ -70,6 +76,10 @@ public class ImageViewTarget extends ViewTarget<ImageView, Bitmap> {
 
         // We can only set the bitmap if the view has not been released.
         if (imageView != null) {
+            if (bitmap != null) {
+                DownloadManager.get().getBitmapPool().acquire(bitmap);
+            }
+            releaseBitmap(imageView);
             imageView.setImageBitmap(bitmap);
         } else {
             Log.w(TAG, "Attempt to set a bitmap on a recycled image view");
@@ -120,12 +130,30 @@ public class ImageViewTarget extends ViewTarget<ImageView, Bitmap> {
 
         // We can only set the drawable if the view has not been released.
         if (imageView != null) {
+            releaseBitmap(imageView);
             imageView.setImageDrawable(drawable);
         } else {
             Log.w(TAG, "Attempt to set a drawable on a recycled image view");
         }
     }
 
+    /**
+     * Releases the pool reference to the bitmap currently displayed by the
+     * image view. Bitmaps that were not set by an ImageViewTarget (for
+     * example, resource drawables) are ignored by the pool.
+     *
+     * @param imageView The image view whose bitmap is being replaced.
+     */
+    private static void releaseBitmap(ImageView imageView) {
+        Drawable drawable = imageView.getDrawable();
+        if (drawable instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null) {
+                DownloadManager.get().getBitmapPool().release(bitmap);
+            }
+        }
+    }
+
     /**
      * Returns the Decoder for this typed target.
      */
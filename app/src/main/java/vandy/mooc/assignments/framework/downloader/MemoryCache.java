@@ -0,0 +1,248 @@
+package vandy.mooc.assignments.framework.downloader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import vandy.mooc.assignments.framework.utils.CacheUtils;
+import vandy.mooc.assignments.framework.utils.Preconditions;
+
+/**
+ * The default DownloadManager memory cache. Decoded bitmaps are kept in a least
+ * recently used cache whose size is bounded by the total number of bytes used
+ * by all cached bitmaps (not by the number of cached entries). The default
+ * size limit is calculated from the application's memory class.
+ * <p/>
+ * When a bitmap pool is supplied, the cache holds a pool reference to each
+ * cached bitmap and releases it when the bitmap is evicted or removed so that
+ * unused bitmaps can be reused for subsequent decodes.
+ * <p/>
+ * A secondary index maps each resource (the key prefix shared by all sizes
+ * of a resource, see Request.getResourceMemoryCacheKeyPrefix()) to the keys
+ * of its cached sizes so that getResource() never scans the whole cache.
+ * <p/>
+ * All methods are thread-safe so that bitmaps can be added from the
+ * background decoding threads and retrieved from the main thread.
+ */
+public class MemoryCache implements DownloadManager.Cache {
+    /**
+     * The backing least recently used map.
+     */
+    private final LruCache<String, Bitmap> mLruCache;
+
+    /**
+     * An optional pool that receives bitmaps removed from this cache.
+     */
+    @Nullable
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * Maps resource key prefixes to the keys of their cached bitmaps (guarded
+     * by itself).
+     */
+    private final Map<String, Set<String>> mResourceKeys = new HashMap<>();
+
+    /**
+     * Constructor that uses the default memory class based size limit.
+     *
+     * @param context Any context.
+     * @param pool    An optional pool for removed bitmaps.
+     */
+    public MemoryCache(@NonNull Context context, @Nullable BitmapPool pool) {
+        this(CacheUtils.calculateMemoryCacheSize(context), pool);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize The maximum number of bitmap bytes held by this cache.
+     * @param pool    An optional pool for removed bitmaps.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MemoryCache(int maxSize, @Nullable BitmapPool pool) {
+        Preconditions.checkArgument(maxSize > 0,
+                                    "Memory cache size must be positive");
+        mBitmapPool = pool;
+        mLruCache = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted,
+                                        String key,
+                                        Bitmap oldValue,
+                                        Bitmap newValue) {
+                // A replaced key is still cached.
+                if (newValue == null) {
+                    unindex(key);
+                }
+
+                // Release the cache's reference to the removed bitmap.
+                if (mBitmapPool != null) {
+                    mBitmapPool.release(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the bitmap cached for the specified key.
+     *
+     * @param key A request memory cache key.
+     * @return A cached bitmap or null if the key is not in the cache.
+     */
+    @Nullable
+    @Override
+    public Bitmap get(@NonNull String key) {
+        return mLruCache.get(key);
+    }
+
+    /**
+     * Adds or replaces the bitmap for the specified key. Bitmaps that are
+     * larger than the whole cache are not stored.
+     *
+     * @param key    A request memory cache key.
+     * @param bitmap The bitmap to cache.
+     */
+    @Override
+    public void set(@NonNull String key, @NonNull Bitmap bitmap) {
+        if (bitmap.getByteCount() <= mLruCache.maxSize()) {
+            if (mBitmapPool != null) {
+                mBitmapPool.acquire(bitmap);
+            }
+
+            // Indexed first so that an immediate eviction is unindexed.
+            index(key);
+            mLruCache.put(key, bitmap);
+        }
+    }
+
+    /**
+     * @return The number of bitmap bytes currently held by this cache.
+     */
+    @Override
+    public int size() {
+        return mLruCache.size();
+    }
+
+    /**
+     * @return The maximum number of bitmap bytes that this cache can hold.
+     */
+    @Override
+    public int maxSize() {
+        return mLruCache.maxSize();
+    }
+
+    /**
+     * Removes all cached bitmaps.
+     */
+    @Override
+    public void clear() {
+        mLruCache.evictAll();
+    }
+
+    /**
+     * Removes all cached bitmaps whose key starts with the passed prefix.
+     *
+     * @param prefix A key prefix.
+     */
+    @Override
+    public void clearKeyPrefix(@NonNull String prefix) {
+        // Iterate over a snapshot since LruCache does not support iterators.
+        for (Map.Entry<String, Bitmap> entry
+                : mLruCache.snapshot().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                mLruCache.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Returns the largest cached bitmap of any size of a resource.
+     *
+     * @param resourcePrefix The key prefix shared by all sizes of the
+     *                       resource.
+     * @return A cached bitmap or null if no size of the resource is cached.
+     */
+    @Nullable
+    @Override
+    public Bitmap getResource(@NonNull String resourcePrefix) {
+        List<String> keys;
+        synchronized (mResourceKeys) {
+            Set<String> resourceKeys = mResourceKeys.get(resourcePrefix);
+            if (resourceKeys == null) {
+                return null;
+            }
+            keys = new ArrayList<>(resourceKeys);
+        }
+
+        Bitmap largest = null;
+        for (String key : keys) {
+            Bitmap bitmap = mLruCache.get(key);
+            if (bitmap != null
+                    && (largest == null
+                    || bitmap.getByteCount() > largest.getByteCount())) {
+                largest = bitmap;
+            }
+        }
+
+        return largest;
+    }
+
+    /**
+     * Adds a key to the resource index.
+     *
+     * @param key A cache key.
+     */
+    private void index(String key) {
+        String prefix = Request.getResourceMemoryCacheKeyPrefix(key);
+        synchronized (mResourceKeys) {
+            Set<String> keys = mResourceKeys.get(prefix);
+            if (keys == null) {
+                keys = new HashSet<>();
+                mResourceKeys.put(prefix, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Removes a key from the resource index.
+     *
+     * @param key A cache key.
+     */
+    private void unindex(String key) {
+        String prefix = Request.getResourceMemoryCacheKeyPrefix(key);
+        synchronized (mResourceKeys) {
+            Set<String> keys = mResourceKeys.get(prefix);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                mResourceKeys.remove(prefix);
+            }
+        }
+    }
+
+    /**
+     * Returns a string containing the cache usage statistics.
+     */
+    @Override
+    public String toString() {
+        return "MemoryCache{" +
+                "size=" + mLruCache.size() +
+                ", maxSize=" + mLruCache.maxSize() +
+                ", hitCount=" + mLruCache.hitCount() +
+                ", missCount=" + mLruCache.missCount() +
+                ", evictionCount=" + mLruCache.evictionCount() +
+                '}';
+    }
+}
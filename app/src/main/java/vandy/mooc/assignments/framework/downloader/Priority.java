@@ -0,0 +1,26 @@
+package vandy.mooc.assignments.framework.downloader;
+
+/**
+ * Scheduling priorities of download requests. Requests with a higher priority
+ * are always started before requests with a lower priority and, within the
+ * same priority, the most recently submitted (or re-prioritized) request is
+ * started first.
+ */
+@SuppressWarnings("unused")
+public enum Priority {
+    /**
+     * Used for speculative work (such as prefetching) that should only run
+     * when nothing else is waiting.
+     */
+    LOW,
+
+    /**
+     * The default priority of all requests.
+     */
+    NORMAL,
+
+    /**
+     * Used for requests whose targets are currently visible.
+     */
+    HIGH
+}
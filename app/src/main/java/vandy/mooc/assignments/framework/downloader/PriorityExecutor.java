@@ -0,0 +1,206 @@
+package vandy.mooc.assignments.framework.downloader;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size thread pool executor whose pending tasks are ordered by
+ * {@link Priority} rather than by submission order. Within the same priority,
+ * tasks are run in last in, first out order so that the work for the targets
+ * that most recently became visible is started first.
+ * <p/>
+ * Submitted runnables that implement {@link Prioritized} are queued with the
+ * priority they report; all other tasks are queued with {@link
+ * Priority#NORMAL}. The priority of a task that has not yet started can be
+ * changed by calling {@link #reprioritize(Future, Priority)} with the future
+ * returned by submit().
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+    /**
+     * Generates increasing sequence numbers used for LIFO ordering.
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param threadCount The fixed number of pool threads.
+     */
+    public PriorityExecutor(int threadCount) {
+        super(threadCount,
+              threadCount,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new PriorityBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Wraps all submitted runnables in a PriorityTask.
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        Priority priority = runnable instanceof Prioritized
+                            ? ((Prioritized) runnable).getPriority()
+                            : Priority.NORMAL;
+        return new PriorityTask<>(runnable, value, priority, nextSequence());
+    }
+
+    /**
+     * Wraps all submitted callables in a NORMAL priority PriorityTask.
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PriorityTask<>(callable, Priority.NORMAL, nextSequence());
+    }
+
+    /**
+     * Ensures that plain runnables passed to execute() are also queued as
+     * PriorityTasks (the priority queue can only order PriorityTasks). A
+     * PriorityTask that is executed again (after having been removed from the
+     * queue) is treated as the newest task of its priority.
+     */
+    @Override
+    public void execute(@NonNull Runnable command) {
+        if (command instanceof PriorityTask) {
+            ((PriorityTask<?>) command).mSequence = nextSequence();
+            super.execute(command);
+        } else {
+            super.execute(newTaskFor(command, null));
+        }
+    }
+
+    /**
+     * Changes the priority of a pending task. The task is moved ahead of all
+     * other pending tasks with the same priority. Tasks that have already
+     * started (or that were not submitted to this executor) are not
+     * affected.
+     *
+     * @param future   A future returned by submit().
+     * @param priority The new priority.
+     * @return {@code true} if the task was pending and has been
+     * re-prioritized; {@code false} if not.
+     */
+    public boolean reprioritize(Future<?> future, @NonNull Priority priority) {
+        if (!(future instanceof PriorityTask)) {
+            return false;
+        }
+
+        PriorityTask<?> task = (PriorityTask<?>) future;
+
+        // A queued task must be removed before its ordering fields are
+        // changed and then re-queued. Since this pool's threads are always
+        // running, the task can be offered directly to the queue.
+        if (!getQueue().remove(task)) {
+            return false;
+        }
+
+        task.mPriority = priority;
+        task.mSequence = nextSequence();
+        return getQueue().offer(task);
+    }
+
+    /**
+     * Re-executes a task that was removed from the queue (e.g. by a call to
+     * remove()) with the passed priority. Priority changes made while the
+     * task was not queued are therefore not lost.
+     *
+     * @param future   A future returned by submit().
+     * @param priority The priority with which to queue the task.
+     * @return {@code true} if the task was re-executed; {@code false} if the
+     * future was not submitted to a PriorityExecutor.
+     */
+    public boolean resubmit(Future<?> future, @NonNull Priority priority) {
+        if (!(future instanceof PriorityTask)) {
+            return false;
+        }
+
+        PriorityTask<?> task = (PriorityTask<?>) future;
+        task.mPriority = priority;
+        execute(task);
+        return true;
+    }
+
+    /**
+     * @return The next LIFO sequence number.
+     */
+    private long nextSequence() {
+        return mSequence.incrementAndGet();
+    }
+
+    /**
+     * Interface implemented by submitted runnables that provide their own
+     * priority.
+     */
+    public interface Prioritized {
+        /**
+         * @return The priority with which this runnable should be queued.
+         */
+        Priority getPriority();
+    }
+
+    /**
+     * A future task that is ordered by priority (highest first) and then by
+     * sequence number (newest first).
+     */
+    private static final class PriorityTask<T>
+            extends FutureTask<T>
+            implements Comparable<PriorityTask<?>> {
+        /**
+         * Ordering fields (only changed while the task is not queued).
+         */
+        volatile Priority mPriority;
+        volatile long mSequence;
+
+        /**
+         * Constructor.
+         *
+         * @param runnable The task to run.
+         * @param value    The result returned by the future.
+         * @param priority The initial priority.
+         * @param sequence The initial sequence number.
+         */
+        PriorityTask(Runnable runnable,
+                     T value,
+                     Priority priority,
+                     long sequence) {
+            super(runnable, value);
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param callable The task to run.
+         * @param priority The initial priority.
+         * @param sequence The initial sequence number.
+         */
+        PriorityTask(Callable<T> callable, Priority priority, long sequence) {
+            super(callable);
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        /**
+         * Orders higher priorities and then newer tasks first.
+         */
+        @Override
+        public int compareTo(@NonNull PriorityTask<?> other) {
+            if (mPriority != other.mPriority) {
+                return other.mPriority.ordinal() - mPriority.ordinal();
+            }
+
+            return mSequence > other.mSequence
+                   ? -1
+                   : mSequence < other.mSequence ? 1 : 0;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package vandy.mooc.assignments.framework.downloader;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.MainThread;
@@ -9,10 +10,14 @@ import android.util.Log;
 import android.webkit.URLUtil;
 
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import vandy.mooc.assignments.framework.utils.CacheUtils;
 import vandy.mooc.assignments.framework.utils.Preconditions;
 import vandy.mooc.assignments.framework.utils.ResourceUtils;
 import vandy.mooc.assignments.framework.utils.Utils;
@@ -37,6 +42,11 @@ public final class Request<R> {
      * Static atomic ID generator.
      */
     private static final AtomicInteger nextId = new AtomicInteger();
+    /**
+     * Cached enum values used to unpack the lifecycle word.
+     */
+    private static final RequestState[] STATES = RequestState.values();
+    private static final Status[] STATUSES = Status.values();
     /**
      * String uri query keys used to encode request attributes into a file name
      * that can be used for caching the request results.
@@ -45,14 +55,25 @@ public final class Request<R> {
     private static final String TAG_KEY = "tag";
     private static final String WIDTH_KEY = "width";
     private static final String HEIGHT_KEY = "height";
+    /**
+     * Separator used between the fields of a memory cache key.
+     */
+    private static final char KEY_SEPARATOR = '\n';
     /**
      * A unique request id.
      */
     public final int mRequestId;
     /**
-     * The context which determines the lifespan of this request.
+     * The context which determines the lifespan of this request. It is
+     * weakly held so that registered requests never keep a destroyed
+     * activity alive.
+     */
+    private final WeakReference<Context> mContextReference;
+    /**
+     * The application context of the request context, used for work that
+     * does not depend on the request lifespan (disk cache and file access).
      */
-    public final Context mContext;
+    public final Context mApplicationContext;
     /**
      * The target URL to download.
      */
@@ -87,6 +108,18 @@ public final class Request<R> {
      */
     public final int mWidth;
     public final int mHeight;
+    /**
+     * Optional thumbnail dimensions (0 if no thumbnail was requested). A
+     * thumbnail that is already in the memory or disk cache is displayed in
+     * the target while the full size resource is being loaded.
+     */
+    public final int mThumbnailWidth;
+    public final int mThumbnailHeight;
+    /**
+     * Optional preferred bitmap config used by the BitmapDecoder. RGB_565
+     * is only used for opaque sources.
+     */
+    public final Bitmap.Config mConfig;
     /**
      * Note that {@link RequestListener} param is a strong reference and will
      * prevent your {@link android.app.Activity} or {@link android.app.Fragment}
@@ -104,19 +137,47 @@ public final class Request<R> {
      */
     public int mNetworkPolicy;
     public int mMemoryPolicy;
+    /**
+     * The scheduling priority of this request (may be changed while the
+     * request is pending, see setPriority()).
+     */
+    private volatile Priority mPriority;
     /**
      * A downloader instance that matches the download policy setting and is
      * typed by the resource type of this request.
      */
-    public Downloader<R> mDownloader;
+    public volatile Downloader<R> mDownloader;
+    /**
+     * Lazily computed hashed cache key (see toFileName()).
+     */
+    private String mFileName;
+    /**
+     * Keeps track of the lifecycle state of the request and, once the
+     * request has finished, its status. Both are packed into a single word
+     * (see pack()) so that they are always updated together with a single
+     * compare-and-set and are immediately visible to all threads.
+     */
+    private final AtomicInteger mLifecycle =
+            new AtomicInteger(pack(RequestState.CREATED, null));
+    /**
+     * An action registered by the downloader that cancel() runs to abort any
+     * blocking I/O (e.g. by disconnecting a live HTTP connection).
+     */
+    private final AtomicReference<Runnable> mCancelAction =
+            new AtomicReference<>();
+    /**
+     * The System.nanoTime() at which this request was cancelled (0 if not
+     * cancelled).
+     */
+    private volatile long mCancelledAtNanos;
     /**
-     * Keeps track of the lifecycle state of the request.
+     * Number of bytes transferred so far by the network download stage.
      */
-    private RequestState mState;
+    private volatile long mBytesDownloaded;
     /**
-     * Set when a download completes.
+     * Expected download size reported by the server (-1 if unknown).
      */
-    private Status mStatus;
+    private volatile long mContentLength = -1;
 
     /**
      * Constructor that is only called by the Builder helper class.
@@ -129,12 +190,18 @@ public final class Request<R> {
             @DrawableRes int errorId,
             int width,
             int height,
+            int thumbnailWidth,
+            int thumbnailHeight,
+            Bitmap.Config config,
             int networkPolicy,
             int memoryPolicy,
             DownloadPolicy downloadPolicy,
             RequestListener<R> listener,
-            String tag) {
-        mContext = context;
+            String tag,
+            Priority priority) {
+        mContextReference = new WeakReference<>(context);
+        mApplicationContext =
+                context != null ? context.getApplicationContext() : null;
         mUri = uri;
         mTarget = target;
         mPlaceholderId = placeholderId;
@@ -144,20 +211,42 @@ public final class Request<R> {
         mDownloadPolicy = downloadPolicy;
         mWidth = width;
         mHeight = height;
+        mThumbnailWidth = thumbnailWidth;
+        mThumbnailHeight = thumbnailHeight;
+        mConfig = config;
         mRequestListener = listener;
         mRequestId = nextId.addAndGet(1);
 
         // To make code simpler, never allow a null tag.
         mTag = tag != null ? tag : "";
+        mPriority = priority != null ? priority : Priority.NORMAL;
+    }
 
-        // Set first state.
-        mState = RequestState.CREATED;
+    /**
+     * Returns the context which determines the lifespan of this request.
+     *
+     * @return The request context or null if it has been garbage collected.
+     */
+    @Nullable
+    public Context getContext() {
+        return mContextReference.get();
+    }
+
+    /**
+     * Returns the context used to load placeholder and error drawables.
+     *
+     * @return The request context or, if it has been garbage collected, the
+     * application context.
+     */
+    private Context getResourceContext() {
+        Context context = getContext();
+        return context != null ? context : mApplicationContext;
     }
 
     /**
      * Returns the request tag that was encoded by buildEncodedUri().
      *
-     * @param uri An encoded uri created by
+     * @param uri An encoded uri created by buildEncodedUri().
      * @return The original request's tag.
      */
     public static String getDecodedTag(Uri uri) {
@@ -265,7 +354,95 @@ public final class Request<R> {
      * not.
      */
     public boolean isCancelled() {
-        return mStatus == Status.CANCELLED;
+        return getStatus() == Status.CANCELLED;
+    }
+
+    /**
+     * Registers an action that cancel() runs to abort blocking I/O performed
+     * for this request. If the request has already been cancelled, the action
+     * is run immediately. Passing null unregisters the current action and
+     * must be done once the I/O has completed.
+     *
+     * @param action An action or null.
+     * @return {@code true} if the action was registered; {@code false} if the
+     * request had already been cancelled.
+     */
+    boolean setCancelAction(@Nullable Runnable action) {
+        mCancelAction.set(action);
+
+        // A concurrent cancel() may have missed the registration; only one of
+        // cancel() and this method can remove (and run) the action.
+        if (action != null
+                && isCancelled()
+                && mCancelAction.compareAndSet(action, null)) {
+            action.run();
+            return false;
+        }
+
+        return action == null || !isCancelled();
+    }
+
+    /**
+     * Called by the HttpDownloader as the resource is transferred to record
+     * the download progress.
+     *
+     * @param bytesDownloaded The number of bytes transferred so far.
+     * @param contentLength   The expected total size or -1 if unknown.
+     */
+    void setDownloadProgress(long bytesDownloaded, long contentLength) {
+        mContentLength = contentLength;
+        mBytesDownloaded = bytesDownloaded;
+    }
+
+    /**
+     * @return The number of bytes transferred so far by the download.
+     */
+    public long getBytesDownloaded() {
+        return mBytesDownloaded;
+    }
+
+    /**
+     * @return The expected download size or -1 if unknown.
+     */
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    /**
+     * Detaches this request from its target without aborting its download.
+     * The request finishes with an EXPIRED status and is recycled (releasing
+     * its target) while the downloader keeps running so that the downloaded
+     * resource is saved in the disk cache. The resource is not decoded or
+     * delivered.
+     *
+     * @return {@code true} if the request was detached; {@code false} if it
+     * had already finished.
+     */
+    @MainThread
+    boolean detach() {
+        Utils.assertMainThread();
+        if (!finish(Status.EXPIRED)) {
+            return false;
+        }
+
+        // The downloader keeps its back reference to this request so that it
+        // runs to completion; its result is discarded.
+        mDownloader = null;
+        recycle();
+        return true;
+    }
+
+    /**
+     * Returns the number of milliseconds that have elapsed since this request
+     * was cancelled.
+     *
+     * @return The elapsed milliseconds or -1 if the request was not cancelled.
+     */
+    long getMillisSinceCancelled() {
+        long cancelledAt = mCancelledAtNanos;
+        return cancelledAt != 0
+               ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cancelledAt)
+               : -1;
     }
 
     /**
@@ -295,16 +472,112 @@ public final class Request<R> {
                 + "+"
                 + mHeight
                 + "+"
+                + mConfig
+                + "+"
                 + mTag;
     }
 
     /**
-     * Encodes the uri, width, height, and tag attributes into a file name
-     * string that can be used for caching.
+     * Builds the memory cache key for this request. Only the attributes that
+     * affect the decoded resource are included. The tag is the leading
+     * component so that all cached resources for a tag can be cleared (see
+     * {@link #getMemoryCacheKeyPrefix(String)}).
+     *
+     * @return A memory cache key.
+     */
+    public String getMemoryCacheKey() {
+        return getResourceMemoryCacheKeyPrefix()
+                + mWidth
+                + 'x'
+                + mHeight
+                + (mConfig != null ? KEY_SEPARATOR + mConfig.name() : "");
+    }
+
+    /**
+     * Returns the prefix shared by the memory cache keys of all sizes of this
+     * request's resource.
+     *
+     * @return A memory cache key prefix.
+     */
+    public String getResourceMemoryCacheKeyPrefix() {
+        return getMemoryCacheKeyPrefix(mTag)
+                + mUri.toString()
+                + KEY_SEPARATOR;
+    }
+
+    /**
+     * Returns the resource prefix (see getResourceMemoryCacheKeyPrefix()) of
+     * a memory cache key built by this class.
+     *
+     * @param key A memory cache key.
+     * @return The prefix shared by all sizes of the key's resource.
+     */
+    public static String getResourceMemoryCacheKeyPrefix(@NonNull String key) {
+        int tagEnd = key.indexOf(KEY_SEPARATOR);
+        int uriEnd = tagEnd >= 0 ? key.indexOf(KEY_SEPARATOR, tagEnd + 1) : -1;
+        return uriEnd >= 0 ? key.substring(0, uriEnd + 1) : key;
+    }
+
+    /**
+     * Builds the memory cache key of this request's thumbnail.
+     *
+     * @return A memory cache key.
+     */
+    public String getThumbnailMemoryCacheKey() {
+        return getResourceMemoryCacheKeyPrefix()
+                + mThumbnailWidth
+                + 'x'
+                + mThumbnailHeight
+                + (mConfig != null ? KEY_SEPARATOR + mConfig.name() : "");
+    }
+
+    /**
+     * @return {@code true} if a thumbnail was requested; {@code false} if
+     * not.
+     */
+    public boolean hasThumbnail() {
+        return mThumbnailWidth > 0 && mThumbnailHeight > 0;
+    }
+
+    /**
+     * Returns the prefix shared by all memory cache keys of requests built
+     * with the passed tag.
+     *
+     * @param tag A request tag.
+     * @return A memory cache key prefix.
+     */
+    public static String getMemoryCacheKeyPrefix(String tag) {
+        return (tag != null ? tag : "") + KEY_SEPARATOR;
+    }
+
+    /**
+     * Returns a compact fixed length file name that can be used for caching
+     * the request resource. The name is a hash of the uri and tag attributes
+     * and is only computed once per request. Since the disk cache holds the
+     * undecoded source data, the decode width and height are not part of the
+     * name so that requests (including prefetch requests) for different
+     * sizes share the same cached file.
      *
      * @return A file name that can be used to save the request resource.
      */
     public String toFileName() {
+        if (mFileName == null) {
+            mFileName = CacheUtils.hashKey(
+                    mUri.toString() + KEY_SEPARATOR + mTag);
+        }
+
+        return mFileName;
+    }
+
+    /**
+     * Encodes the uri, width, height, and tag attributes into a uri string
+     * that is stored as disk cache metadata so that a hashed cache file name
+     * can be mapped back to the request attributes using the getDecoded*()
+     * helpers.
+     *
+     * @return An encoded uri string containing the request attributes.
+     */
+    public String buildEncodedUri() {
         try {
             Uri.Builder builder = new Uri.Builder();
             String encodedUri = URLEncoder.encode(mUri.toString(), "UTF-8");
@@ -330,7 +603,7 @@ public final class Request<R> {
      * request.
      */
     public boolean isMatch(Uri uri) {
-        return uri.equals(Preconditions.checkNotNull(toFileName()));
+        return toFileName().equals(uri.getLastPathSegment());
     }
 
     /**
@@ -340,8 +613,8 @@ public final class Request<R> {
     public String toString() {
         return "Request{" +
                 "mRequestId=" + mRequestId +
-                ", mState=" + mState +
-                ", mStatus=" + mStatus +
+                ", mState=" + getState() +
+                ", mStatus=" + getStatus() +
                 ", mUri=" + mUri +
                 ", mWidth=" + mWidth +
                 ", mHeight=" + mHeight +
@@ -351,10 +624,11 @@ public final class Request<R> {
                 ", mDownloadPolicy=" + mDownloadPolicy +
                 ", mNetworkPolicy=" + mNetworkPolicy +
                 ", mMemoryPolicy=" + mMemoryPolicy +
+                ", mPriority=" + mPriority +
                 ", mRequestListener=" + mRequestListener +
                 ", mDownloader=" + mDownloader +
                 ", mTarget=" + mTarget +
-                ", mContext=" + mContext +
+                ", mContext=" + getContext() +
                 '}';
     }
 
@@ -366,8 +640,8 @@ public final class Request<R> {
     public String toShortString() {
         return "Request{" +
                 "mRequestId=" + mRequestId +
-                ", mState=" + mState +
-                ", mStatus=" + mStatus +
+                ", mState=" + getState() +
+                ", mStatus=" + getStatus() +
                 ", mUri=" + mUri +
                 '}';
     }
@@ -385,7 +659,7 @@ public final class Request<R> {
 
         // Inform target that load operation is starting.
         mTarget.onLoadStarted(
-                ResourceUtils.getResourceDrawable(mContext,
+                ResourceUtils.getResourceDrawable(getResourceContext(),
                                                   mPlaceholderId));
 
         // Execute the load operation. The downloader maintains a reference
@@ -393,27 +667,90 @@ public final class Request<R> {
         // callbacks.
         mDownloader.execute();
 
-        setState(RequestState.RUNNING);
+        // The request may have already been cancelled (from another thread)
+        // in which case it must remain finished.
+        compareAndSetState(RequestState.STARTED, RequestState.RUNNING);
+    }
+
+    /**
+     * Starts a target-less prefetch request. The download itself is
+     * performed by the DownloadManager.
+     */
+    @MainThread
+    void startPrefetch() {
+        Utils.assertMainThread();
+        Preconditions.checkState(mTarget == null,
+                                 "Prefetch requests can not have a target");
+        setState(RequestState.STARTED);
+        compareAndSetState(RequestState.STARTED, RequestState.RUNNING);
+    }
+
+    /**
+     * Called when a prefetch download has completed to notify the optional
+     * listener and recycle the request.
+     *
+     * @param uri The cached file uri or null if the download failed.
+     */
+    @MainThread
+    @SuppressWarnings("unchecked")
+    void onPrefetchCompleted(@Nullable Uri uri) {
+        Utils.assertMainThread();
+        if (!finish(uri != null ? Status.SUCCEEDED : Status.FAILED)) {
+            return;
+        }
+
+        if (mRequestListener != null) {
+            if (uri != null) {
+                ((RequestListener<Uri>) mRequestListener).onResourceReady(uri);
+            } else {
+                mRequestListener.onRequestFailed();
+            }
+        }
+
+        recycle();
     }
 
     /**
      * Cancel the currently running request and free any resources associated
      * with this request. The request will no longer be valid after this call.
+     * This method must be called from the main thread since the request (and
+     * its target) is recycled; the cancellation is immediately visible to the
+     * downloader threads. Cancelling a request that has already finished has
+     * no effect.
+     *
+     * @return {@code true} if the request was cancelled; {@code false} if it
+     * had already finished.
      */
-    public void cancel() {
-        if (mDownloader != null) {
+    @MainThread
+    @SuppressWarnings("UnusedReturnValue")
+    public boolean cancel() {
+        Utils.assertMainThread();
+        long now = System.nanoTime();
+        if (!finish(Status.CANCELLED)) {
+            return false;
+        }
+        mCancelledAtNanos = now;
+
+        // Abort any blocking I/O so that the downloader thread is released
+        // immediately rather than when the I/O times out.
+        Runnable cancelAction = mCancelAction.getAndSet(null);
+        if (cancelAction != null) {
+            cancelAction.run();
+        }
+
+        Downloader<R> downloader = mDownloader;
+        if (downloader != null) {
             Log.d(TAG, "Request attempting to cancel a download");
 
             // Immediately unhook the request back reference.
-            mDownloader.setRequest(null);
-            if (mDownloader.isRunning()) {
-                mDownloader.cancel();
+            downloader.setRequest(null);
+            if (downloader.isRunning()) {
+                downloader.cancel();
             }
             mDownloader = null;
         }
-        setState(RequestState.FINISHED);
-        setStatus(Status.CANCELLED);
         recycle();
+        return true;
     }
 
     /**
@@ -426,7 +763,7 @@ public final class Request<R> {
      * chain.
      */
     public void recycle() {
-        if (mState == RequestState.RECYCLED) {
+        if (getState() == RequestState.RECYCLED) {
             Log.w(TAG, "recycle: request has already been recycled");
             return;
         }
@@ -443,9 +780,10 @@ public final class Request<R> {
         // Remove the request from the request manager's <context|requests> map.
         DownloadManager.get().recycleRequest(this);
 
-        // Record this request as available to be reused.
+        // Record this request as available to be reused. The finish status
+        // is retained so that isCancelled() remains true for any downloader
+        // thread that still holds a reference to this request.
         setState(RequestState.RECYCLED);
-        setStatus(null);
     }
 
     /**
@@ -472,7 +810,7 @@ public final class Request<R> {
      * @return Downloader implementation.
      */
     public Decoder getResourceDecoder() {
-        return mTarget.getResourceDecoder();
+        return mTarget != null ? mTarget.getResourceDecoder() : null;
     }
 
     /**
@@ -497,6 +835,32 @@ public final class Request<R> {
         return mDownloadPolicy;
     }
 
+    /**
+     * @return The request scheduling priority.
+     */
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Changes the scheduling priority of this request. If the request's
+     * download has not yet started, the downloader is informed so that it can
+     * re-queue the download with the new priority.
+     *
+     * @param priority The new priority.
+     */
+    @MainThread
+    public void setPriority(Priority priority) {
+        Utils.assertMainThread();
+        Preconditions.checkNotNull(priority, "priority can not be null");
+        if (mPriority != priority) {
+            mPriority = priority;
+            if (mDownloader != null) {
+                mDownloader.onPriorityChanged();
+            }
+        }
+    }
+
     /**
      * Called after a download has completed to decode the cached file data into
      * the target resource data type. The decoder is obtained from the target.
@@ -504,9 +868,32 @@ public final class Request<R> {
      * @return A decoded data object or null if the decoding fails.
      */
     public R decodeResource(Uri uri) {
+        // A detached request only downloads into the disk cache.
+        if (getStatus() == Status.EXPIRED) {
+            return null;
+        }
+
         @SuppressWarnings("unchecked")
         Decoder<R> decoder = Preconditions.checkNotNull(getResourceDecoder());
-        return decoder.decode(uri, mWidth, mHeight);
+        @SuppressWarnings("unchecked")
+        R resource = decoder instanceof BitmapDecoder
+                     ? (R) ((BitmapDecoder) decoder).decode(
+                             uri, mWidth, mHeight, mConfig)
+                     : decoder.decode(uri, mWidth, mHeight);
+
+        // Hold a pool reference to decoded bitmaps until they have been
+        // delivered so that they can not be reused if they are evicted from
+        // the memory cache in the meantime.
+        if (resource instanceof Bitmap) {
+            DownloadManager.get().getBitmapPool().acquire((Bitmap) resource);
+        }
+
+        // Make the resource available to subsequent matching requests.
+        if (resource != null) {
+            DownloadManager.get().cacheResource(this, resource);
+        }
+
+        return resource;
     }
 
     /*
@@ -517,69 +904,173 @@ public final class Request<R> {
      * Returns the current lifecycle state of this request.
      */
     public RequestState getState() {
-        return mState;
+        return unpackState(mLifecycle.get());
+    }
+
+    /**
+     * Returns the status of a finished (or recycled) request.
+     *
+     * @return The finish status or null if the request has not finished.
+     */
+    @Nullable
+    public Status getStatus() {
+        return unpackStatus(mLifecycle.get());
     }
 
     /**
      * Sets the current state for this request and also ensures that the request
      * is moving between legal states. An IllegalStateException will thrown if
-     * the state cannot be set.
+     * the state cannot be set. The transition is made atomically so that this
+     * method can be called from any thread.
      *
      * @param state The state to move to.
      */
     public void setState(RequestState state) {
-        switch (state) {
+        while (true) {
+            int word = mLifecycle.get();
+            RequestState current = unpackState(word);
+            if (!isLegalTransition(current, state)) {
+                throw new IllegalStateException(
+                        "setState: " + current + " -> " + state
+                                + " is not supported");
+            }
+
+            // A reused request starts without a status.
+            Status status = state == RequestState.CREATED
+                            ? null
+                            : unpackStatus(word);
+            if (mLifecycle.compareAndSet(word, pack(state, status))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Atomically moves this request from the expected state to the passed
+     * state.
+     *
+     * @param expect The expected current state.
+     * @param state  The state to move to.
+     * @return {@code true} if the state was changed; {@code false} if the
+     * request was not in the expected state.
+     */
+    private boolean compareAndSetState(
+            RequestState expect, RequestState state) {
+        while (true) {
+            int word = mLifecycle.get();
+            if (unpackState(word) != expect) {
+                return false;
+            }
+
+            if (mLifecycle.compareAndSet(
+                    word, pack(state, unpackStatus(word)))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically moves this request to the FINISHED state with the passed
+     * status. Only a single caller can ever finish a request so that the
+     * finishing callbacks (target, listener, or cancellation) are invoked
+     * exactly once.
+     *
+     * @param status The finish status.
+     * @return {@code true} if this call finished the request; {@code false} if
+     * the request had already finished.
+     */
+    private boolean finish(Status status) {
+        while (true) {
+            int word = mLifecycle.get();
+            RequestState current = unpackState(word);
+            if (current == RequestState.FINISHED
+                    || current == RequestState.RECYCLED) {
+                return false;
+            }
+
+            if (!isLegalTransition(current, RequestState.FINISHED)) {
+                throw new IllegalStateException(
+                        "finish: " + current + " -> "
+                                + RequestState.FINISHED + " is not supported");
+            }
+
+            if (mLifecycle.compareAndSet(
+                    word, pack(RequestState.FINISHED, status))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The request lifecycle transition table.
+     *
+     * @param from The current state.
+     * @param to   The state to move to.
+     * @return {@code true} if the transition is legal; {@code false} if not.
+     */
+    private static boolean isLegalTransition(
+            RequestState from, RequestState to) {
+        switch (to) {
             case CREATED:
-                if (mState == null || mState == RequestState.RECYCLED) {
-                    mState = state;
-                    return;
-                }
-                break;
+                return from == RequestState.RECYCLED;
 
             case STARTED:
-                if (mState == RequestState.CREATED) {
-                    mState = state;
-                    return;
-                }
-                break;
+                return from == RequestState.CREATED;
 
             case RUNNING:
-                if (mState == RequestState.STARTED
-                        || mState == RequestState.PAUSED) {
-                    mState = state;
-                    return;
-                }
-                break;
+                return from == RequestState.STARTED
+                        || from == RequestState.PAUSED;
 
             case PAUSED:
-                if (mState == RequestState.RUNNING) {
-                    mState = state;
-                    return;
-                }
-                break;
+                return from == RequestState.RUNNING;
 
             case FINISHED:
                 // Synchronous requests will move from STARTED to FINISHED
                 // while asynchronous requests will move from STARTED to
-                // RUNNING to FINISHED.
-                if (mState == RequestState.STARTED
-                        || mState == RequestState.RUNNING) {
-                    mState = state;
-                    return;
-                }
-                break;
+                // RUNNING to FINISHED. A paused request can finish if it is
+                // cancelled or if its download was already running when it
+                // was paused.
+                return from == RequestState.STARTED
+                        || from == RequestState.RUNNING
+                        || from == RequestState.PAUSED;
+
             case RECYCLED:
                 // A request should only be recycled if it has finished and has
                 // a finish status of SUCCESS, FAILED, CANCELLED, or EXPIRED.
-                if (mState == RequestState.FINISHED) {
-                    mState = state;
-                    return;
-                }
-                break;
+                return from == RequestState.FINISHED;
         }
 
-        throw new IllegalStateException(
-                "setState: " + mState + " -> " + state + " is not supported");
+        return false;
+    }
+
+    /**
+     * Packs a state and status into a single lifecycle word.
+     *
+     * @param state  A state.
+     * @param status A status or null.
+     * @return The packed lifecycle word.
+     */
+    private static int pack(RequestState state, @Nullable Status status) {
+        return state.ordinal() << 8
+                | (status != null ? status.ordinal() + 1 : 0);
+    }
+
+    /**
+     * @param word A packed lifecycle word.
+     * @return The state packed in the word.
+     */
+    private static RequestState unpackState(int word) {
+        return STATES[word >>> 8];
+    }
+
+    /**
+     * @param word A packed lifecycle word.
+     * @return The status packed in the word or null if none.
+     */
+    @Nullable
+    private static Status unpackStatus(int word) {
+        int ordinal = word & 0xff;
+        return ordinal != 0 ? STATUSES[ordinal - 1] : null;
     }
 
     /**
@@ -590,8 +1081,9 @@ public final class Request<R> {
      * list, {@code false} if not.
      */
     private boolean isState(RequestState... states) {
+        RequestState current = getState();
         for (final RequestState state : states) {
-            if (mState.equals(state)) {
+            if (current == state) {
                 return true;
             }
         }
@@ -611,7 +1103,7 @@ public final class Request<R> {
         }
 
         throw new IllegalStateException(
-                "Current state " + mState + " not in passed states");
+                "Current state " + getState() + " not in passed states");
     }
 
     /**
@@ -619,9 +1111,12 @@ public final class Request<R> {
      * been successfully decoded into the required resource data type.
      *
      * @param resource The resource result.
+     * @return {@code true} if the resource was delivered; {@code false} if the
+     * request had already finished (e.g. it was cancelled from another
+     * thread).
      */
     @MainThread
-    public void onResourceReady(R resource) {
+    public boolean onResourceReady(R resource) {
         Utils.assertMainThread();
 
         Preconditions.checkNotNull(
@@ -631,8 +1126,15 @@ public final class Request<R> {
         Preconditions.checkNotNull(
                 hasExpired(), "Attempt to set resource on a recycled target");
 
-        setState(RequestState.FINISHED);
-        setStatus(Status.SUCCEEDED);
+        if (!finish(Status.SUCCEEDED)) {
+            // Release the delivery reference acquired when the resource was
+            // decoded since it will never reach the target.
+            if (resource instanceof Bitmap) {
+                DownloadManager.get().getBitmapPool().release(
+                        (Bitmap) resource);
+            }
+            return false;
+        }
 
         // If the target has not expired (the application object that it may be
         // wrapping may have been GC'd) then redirect the event to the target.
@@ -646,20 +1148,82 @@ public final class Request<R> {
             mRequestListener.onResourceReady(resource);
         }
 
+        // Release the delivery reference acquired when the resource was
+        // decoded (the target now holds its own reference).
+        if (resource instanceof Bitmap) {
+            DownloadManager.get().getBitmapPool().release((Bitmap) resource);
+        }
+
         // Downloader must be explicitly detached before recycling.
         mDownloader = null;
 
         // Always call recycle to ensure that all attached implementations
         // get a chance to recycle any of their resources.
         recycle();
+        return true;
+    }
+
+    /**
+     * Called by the DownloadManager when the requested resource was found in
+     * the memory cache. The request is completed synchronously without ever
+     * running a downloader.
+     *
+     * @param resource The cached resource.
+     */
+    @MainThread
+    void onResourceCached(R resource) {
+        Utils.assertMainThread();
+        setState(RequestState.STARTED);
+
+        // Match the delivery reference acquired by decodeResource().
+        if (resource instanceof Bitmap) {
+            DownloadManager.get().getBitmapPool().acquire((Bitmap) resource);
+        }
+
+        onResourceReady(resource);
+    }
+
+    /**
+     * Called when a thumbnail of the resource has become available. The
+     * thumbnail replaces the placeholder in the target unless the full size
+     * resource has already been delivered or the target has been assigned to
+     * another request. An optional ThumbnailListener is also notified.
+     *
+     * @param thumbnail The thumbnail resource.
+     * @return {@code true} if the thumbnail was displayed; {@code false} if
+     * not.
+     */
+    @MainThread
+    @SuppressWarnings("unchecked")
+    boolean onThumbnailReady(R thumbnail) {
+        Utils.assertMainThread();
+        if (getStatus() != null
+                || mTarget == null
+                || mTarget.hasExpired()
+                || mTarget.getRequest() != this) {
+            return false;
+        }
+
+        mTarget.setResource(thumbnail);
+
+        if (mRequestListener instanceof ThumbnailListener) {
+            ((ThumbnailListener<R>) mRequestListener)
+                    .onThumbnailReady(thumbnail);
+        }
+
+        return true;
     }
 
     /**
      * Called when a load operation has failed and simply forwards this event to
      * the target.
+     *
+     * @return {@code true} if the failure was delivered; {@code false} if the
+     * request had already finished (e.g. it was cancelled from another
+     * thread).
      */
     @MainThread
-    public void onLoadFailed() {
+    public boolean onLoadFailed() {
         Utils.assertMainThread();
 
         Preconditions.checkNotNull(
@@ -667,14 +1231,16 @@ public final class Request<R> {
         Preconditions.checkNotNull(
                 hasExpired(), "Load failed for a recycled target");
 
-        setState(RequestState.FINISHED);
-        setStatus(Status.FAILED);
+        if (!finish(Status.FAILED)) {
+            return false;
+        }
 
         // If the target has not expired (the application object that it may be
         // wrapping may have been GC'd) then redirect the event to the target.
         if (!mTarget.hasExpired()) {
             mTarget.onLoadFailed(
-                    ResourceUtils.getResourceDrawable(mContext, mErrorId));
+                    ResourceUtils.getResourceDrawable(
+                            getResourceContext(), mErrorId));
         }
 
         // Optional request listeners never expire, so always redirect event to
@@ -689,6 +1255,7 @@ public final class Request<R> {
         // Always call recycle to ensure that all attached implementations
         // get a chance to recycle any of their resources.
         recycle();
+        return true;
     }
 
     /**
@@ -701,15 +1268,72 @@ public final class Request<R> {
         return mDownloader != null && mDownloader.isRunning();
     }
 
+    /**
+     * Determines if this request has been paused.
+     *
+     * @return {@code}true if the request is paused; {@code}false otherwise.
+     */
     public boolean isPaused() {
         return isState(RequestState.PAUSED);
     }
 
+    /**
+     * Pauses a running request. The downloader keeps a download that has not
+     * yet started queued without consuming a thread until the request is
+     * resumed. Requests that are not running are not affected.
+     *
+     * @return {@code true} if the request was paused; {@code false} if not.
+     */
+    @MainThread
+    public boolean pause() {
+        Utils.assertMainThread();
+        Downloader<R> downloader = mDownloader;
+        if (downloader == null
+                || !compareAndSetState(
+                RequestState.RUNNING, RequestState.PAUSED)) {
+            return false;
+        }
+
+        downloader.pause();
+        return true;
+    }
+
+    /**
+     * Resumes a paused request.
+     *
+     * @return {@code true} if the request was resumed; {@code false} if it
+     * was not paused.
+     */
+    @MainThread
+    public boolean resume() {
+        Utils.assertMainThread();
+        if (!compareAndSetState(RequestState.PAUSED, RequestState.RUNNING)) {
+            return false;
+        }
+
+        Downloader<R> downloader = mDownloader;
+        if (downloader != null) {
+            downloader.resume();
+        }
+        return true;
+    }
+
+    /**
+     * Sets the status of a finished request.
+     *
+     * @param status A status or null to clear the status.
+     */
     public void setStatus(Status status) {
-        Preconditions.checkState(
-                status == null || mState == RequestState.FINISHED,
-                "Status can not be set when request state is " + mState);
-        mStatus = status;
+        while (true) {
+            int word = mLifecycle.get();
+            RequestState state = unpackState(word);
+            Preconditions.checkState(
+                    status == null || state == RequestState.FINISHED,
+                    "Status can not be set when request state is " + state);
+            if (mLifecycle.compareAndSet(word, pack(state, status))) {
+                return;
+            }
+        }
     }
 
     /**
@@ -734,6 +1358,9 @@ public final class Request<R> {
         private RequestListener mRequestListener;
         private int mWidth;
         private int mHeight;
+        private int mThumbnailWidth;
+        private int mThumbnailHeight;
+        private Bitmap.Config mConfig;
         private Target<R> mTarget;
         private int mNetworkPolicy;
         private int mMemoryPolicy;
@@ -741,6 +1368,7 @@ public final class Request<R> {
         @DrawableRes
         private int mPlaceholderId;
         private String mTag;
+        private Priority mPriority;
 
         public Builder(Context context, Uri uri) {
             mContext = context;
@@ -810,6 +1438,47 @@ public final class Request<R> {
             return this;
         }
 
+        /**
+         * Sets the size of a thumbnail to display while the full size
+         * resource is being loaded.
+         *
+         * @param width  The thumbnail width.
+         * @param height The thumbnail height.
+         * @return Fluent Builder instance.
+         */
+        public Builder setThumbnail(int width, int height) {
+            if (mThumbnailWidth != 0 || mThumbnailHeight != 0) {
+                throw new IllegalStateException(
+                        "A thumbnail has already been set.");
+            }
+            mThumbnailWidth = width;
+            mThumbnailHeight = height;
+            return this;
+        }
+
+        /**
+         * Sets the preferred config of decoded bitmaps. RGB_565 halves the
+         * memory used by opaque images; sources that may contain an alpha
+         * channel are still decoded as ARGB_8888.
+         *
+         * @param config A bitmap config.
+         * @return Fluent Builder instance.
+         */
+        public Builder setConfig(Bitmap.Config config) {
+            mConfig = config;
+            return this;
+        }
+
+        /**
+         * Reports if a resize width or height has been set.
+         *
+         * @return {@code true} if a resize size has been set; {@code false}
+         * if not.
+         */
+        boolean hasSize() {
+            return mWidth != 0 || mHeight != 0;
+        }
+
         /**
          * Sets the placeholder drawable resource id to display while download
          * request is being processed.
@@ -899,6 +1568,21 @@ public final class Request<R> {
             mTag = tag;
         }
 
+        /**
+         * Sets the request scheduling priority.
+         *
+         * @param priority The priority to set.
+         * @return Fluent Builder instance.
+         */
+        public Builder setPriority(Priority priority) {
+            if (priority == null) {
+                throw new IllegalArgumentException(
+                        "priority cannot be null.");
+            }
+            mPriority = priority;
+            return this;
+        }
+
         /**
          * Builds an download request from the Builder fields.
          *
@@ -913,11 +1597,15 @@ public final class Request<R> {
                                mErrorId,
                                mWidth,
                                mHeight,
+                               mThumbnailWidth,
+                               mThumbnailHeight,
+                               mConfig,
                                mNetworkPolicy,
                                mMemoryPolicy,
                                mDownloadPolicy,
                                mRequestListener,
-                               mTag);
+                               mTag,
+                               mPriority);
         }
     }
 }
@@ -1,9 +1,11 @@
 package vandy.mooc.assignments.framework.downloader;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.widget.ImageView;
 
 import vandy.mooc.assignments.framework.utils.Utils;
@@ -30,6 +32,11 @@ public class RequestCreator<R> {
      */
     private Request.Builder mBuilder;
 
+    /**
+     * Set when an explicit priority has been set by calling priority().
+     */
+    private boolean mPrioritySet;
+
     /**
      * Constructor.
      *
@@ -115,6 +122,39 @@ public class RequestCreator<R> {
         return this;
     }
 
+    /**
+     * Sets the size of a thumbnail that is displayed in place of the
+     * placeholder while the full size resource is being loaded. If the
+     * memory cache holds the resource at any size or config (for example,
+     * the bitmap shown by a grid cell), the largest one is displayed
+     * immediately and this size is ignored. Otherwise, if the resource is in
+     * the disk cache, a thumbnail of this size is decoded ahead of the full
+     * size resource; it is skipped if the thumbnail executor is saturated
+     * and is never downloaded. A ThumbnailListener (see listen()) is
+     * notified when the thumbnail is displayed.
+     *
+     * @param width  Thumbnail width.
+     * @param height Thumbnail height.
+     * @return Fluent RequestCreator instance.
+     */
+    @SuppressWarnings("SameParameterValue")
+    public RequestCreator thumbnail(int width, int height) {
+        mBuilder.setThumbnail(width, height);
+        return this;
+    }
+
+    /**
+     * Sets the preferred config of the decoded bitmap. RGB_565 is only used
+     * for opaque (JPEG) sources.
+     *
+     * @param config A bitmap config.
+     * @return Fluent RequestCreator instance.
+     */
+    public RequestCreator config(@NonNull Bitmap.Config config) {
+        mBuilder.setConfig(config);
+        return this;
+    }
+
     /**
      *
      * Sets request tag.
@@ -127,6 +167,18 @@ public class RequestCreator<R> {
         return this;
     }
 
+    /**
+     * Sets the scheduling priority (NORMAL by default).
+     *
+     * @param priority The request priority.
+     * @return Fluent RequestCreator instance.
+     */
+    public RequestCreator priority(@NonNull Priority priority) {
+        mBuilder.setPriority(priority);
+        mPrioritySet = true;
+        return this;
+    }
+
     /**
      * Sets the download policy.
      *
@@ -151,16 +203,38 @@ public class RequestCreator<R> {
     }
 
     /**
-     * Constructs the request and dispatches it to the DownloadManager which
-     * downloads the target data asynchronous background thread.
+     * Constructs a target-less request and dispatches it to the
+     * DownloadManager which downloads the resource into the disk cache
+     * without decoding it. Unless a priority has been set, the download is
+     * performed at LOW priority so that it never delays displayed content.
      *
-     * @param listener RequestListener implementation invoked when download
-     *                 completes or fails.
+     * @param listener Optional RequestListener implementation invoked when
+     *                 the download completes (passing the local cache file
+     *                 uri) or fails.
+     * @return The prefetch request which can be passed to
+     * DownloadManager.cancelRequest().
      */
-    public void fetch(RequestListener listener) {
-        mBuilder.setListener(listener);
+    public Request fetch(@Nullable RequestListener listener) {
+        Utils.assertMainThread();
+        if (listener != null) {
+            mBuilder.setListener(listener);
+        }
+        if (!mPrioritySet) {
+            mBuilder.setPriority(Priority.LOW);
+        }
         Request request = mBuilder.build();
-        mManager.dispatch(request);
+        mManager.prefetch(request);
+        return request;
+    }
+
+    /**
+     * Constructs a target-less request that warms the disk cache (see
+     * fetch(RequestListener)).
+     *
+     * @return The prefetch request.
+     */
+    public Request prefetch() {
+        return fetch(null);
     }
 
     /**
@@ -193,12 +267,44 @@ public class RequestCreator<R> {
      * Constructs the request and dispatches it to the DownloadManager which
      * asynchronously downloads and encodes the resource in a background thread
      * and then loads the resource into the target.
+     * <p/>
+     * If no resize size has been set and the target is a ViewTarget, the
+     * resource is decoded to the size of the target view. If that view has
+     * not yet been laid out, the request is built and dispatched on the
+     * view's first pre-draw pass.
      *
      * @param target The target into which the downloaded resource is loaded.
      */
-    public void into(@NonNull Target target) {
+    public void into(@NonNull final Target target) {
         Utils.assertMainThread();
 
+        if (target instanceof ViewTarget) {
+            ViewTarget viewTarget = (ViewTarget) target;
+            if (!mBuilder.hasSize()) {
+                viewTarget.getSize(new ViewTarget.SizeReadyCallback() {
+                    @Override
+                    public void onSizeReady(int width, int height) {
+                        resize(width, height);
+                        dispatch(target);
+                    }
+                });
+                return;
+            }
+
+            // An explicit size supersedes any deferred request for the view.
+            viewTarget.cancelPendingSize();
+        }
+
+        dispatch(target);
+    }
+
+    /**
+     * Constructs the request for the passed target and dispatches it to the
+     * DownloadManager.
+     *
+     * @param target The target into which the downloaded resource is loaded.
+     */
+    private void dispatch(@NonNull Target target) {
         // Set the target.
         //noinspection unchecked
         mBuilder.setTarget(target);
@@ -8,8 +8,10 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Manages the lifecycle of all requests. When a request is started it is added
@@ -22,6 +24,21 @@ import java.util.List;
  * post those results to any request target. When the activity is recreated
  * after a configuration change, any cached resources that completed while the
  * activity was destroyed, will be made available for faster loading.
+ * <p/>
+ * All requests are indexed by their request id, globally, per context, and
+ * per tag, so that adding, removing, and finding a request and finding the
+ * requests with a given tag are constant time operations (plus the number of
+ * matching requests). An activity's entry is removed as soon as the activity
+ * is destroyed (including for a configuration change, in which case its
+ * requests remain registered by id and tag until they are recycled). Since
+ * requests only hold their context weakly, the registry never keeps a
+ * destroyed activity alive.
+ * <p/>
+ * The registry uses concurrent maps so that requests can be added, looked
+ * up, and recycled from any thread. Requests must be cancelled on the main
+ * thread, however, since Request.cancel() also recycles the request target;
+ * shutdown() and the activity lifecycle callbacks are therefore main thread
+ * only.
  */
 class RequestManager
         implements Application.ActivityLifecycleCallbacks {
@@ -34,20 +51,30 @@ class RequestManager
      */
     private final Application mApplication;
     /**
-     * Maps requests to activities.
+     * Maps contexts to their requests (indexed by request id).
      */
-    private HashMap<Context, List<Request>> mActivityRequestMap;
+    private final ConcurrentHashMap<Context, ConcurrentMap<Integer, Request>>
+            mContextRequestMap = new ConcurrentHashMap<>();
+    /**
+     * Maps request tags to their requests (indexed by request id).
+     */
+    private final ConcurrentHashMap<String, ConcurrentMap<Integer, Request>>
+            mTagRequestMap = new ConcurrentHashMap<>();
+    /**
+     * All registered requests indexed by request id.
+     */
+    private final ConcurrentHashMap<Integer, Request> mRequests =
+            new ConcurrentHashMap<>();
 
     public RequestManager(Context context) {
         mApplication = (Application) context.getApplicationContext();
-        mActivityRequestMap = new HashMap<>();
     }
 
     /**
      * Registers the class as an application wide activity lifecycle listener.
      */
     public void startup() {
-        if (mActivityRequestMap.size() != 0) {
+        if (!mRequests.isEmpty()) {
             throw new IllegalStateException(
                     "startup should only be called once");
         }
@@ -65,23 +92,94 @@ class RequestManager
     }
 
     /**
-     * Adds a request to the context's list.
+     * Adds a request to the context's and the tag's request maps.
      *
      * @param request A request.
      */
     public void addRequest(Request request) {
-        List<Request> requests = getRequests(request.mContext);
-        requests.add(request);
-        mActivityRequestMap.put(request.mContext, requests);
+        Context context = request.getContext();
+        if (context != null) {
+            addToIndex(mContextRequestMap, context, request);
+        }
+        addToIndex(mTagRequestMap, request.mTag, request);
+        mRequests.put(request.mRequestId, request);
+    }
+
+    /**
+     * Adds a request to the request map of the passed key, creating the map
+     * if necessary.
+     *
+     * @param index   The context or tag index.
+     * @param key     The request's context or tag.
+     * @param request A request.
+     * @param <K>     The key type.
+     */
+    private static <K> void addToIndex(
+            ConcurrentHashMap<K, ConcurrentMap<Integer, Request>> index,
+            K key,
+            Request request) {
+        while (true) {
+            ConcurrentMap<Integer, Request> requests = index.get(key);
+            if (requests == null) {
+                ConcurrentMap<Integer, Request> newRequests =
+                        new ConcurrentHashMap<>();
+                requests = index.putIfAbsent(key, newRequests);
+                if (requests == null) {
+                    requests = newRequests;
+                }
+            }
+
+            requests.put(request.mRequestId, request);
+
+            // A concurrent removeFromIndex() may have removed this map from
+            // the index after it became empty; if so, try again with a new
+            // map.
+            if (index.get(key) == requests) {
+                return;
+            }
+
+            requests.remove(request.mRequestId, request);
+        }
+    }
+
+    /**
+     * Removes a request from the request map of the passed key and removes
+     * the key from the index if its request map becomes empty.
+     *
+     * @param index   The context or tag index.
+     * @param key     The request's context or tag.
+     * @param request A request.
+     * @param <K>     The key type.
+     * @return {@code true} if the request was removed; {@code false} if it
+     * was not in the key's request map.
+     */
+    private static <K> boolean removeFromIndex(
+            ConcurrentHashMap<K, ConcurrentMap<Integer, Request>> index,
+            K key,
+            Request request) {
+        ConcurrentMap<Integer, Request> requests = index.get(key);
+        if (requests == null
+                || !requests.remove(request.mRequestId, request)) {
+            return false;
+        }
+
+        if (requests.isEmpty()) {
+            // Remove the key (unless a request was added concurrently).
+            index.remove(key, requests);
+        }
+
+        return true;
     }
 
     /**
      * Cancels all requests for all contexts.
      */
     private void cancelAllRequests() {
-        for (Context context : mActivityRequestMap.keySet()) {
-            cancelRequests(context);
+        for (ConcurrentMap<Integer, Request> requests
+                : mContextRequestMap.values()) {
+            cancelRequests(requests.values());
         }
+        mContextRequestMap.clear();
     }
 
     /**
@@ -90,49 +188,79 @@ class RequestManager
      * @param context A context.
      */
     private void cancelRequests(Context context) {
-        List<Request> requests = mActivityRequestMap.remove(context);
+        ConcurrentMap<Integer, Request> requests =
+                mContextRequestMap.remove(context);
         if (requests != null) {
             Log.d(TAG, "Cancelling "
                     + requests.size()
                     + " requests for context "
                     + context);
-            cancelRequests(requests);
+            cancelRequests(requests.values());
         }
     }
 
     /**
-     * Helper method that cancels a list of requests.
+     * Helper method that cancels a collection of requests.
      *
-     * @param requests A list of requests.
+     * @param requests A collection of requests.
      */
-    private void cancelRequests(@NonNull List<Request> requests) {
-        for (final Request request : requests) {
+    private void cancelRequests(@NonNull Collection<Request> requests) {
+        for (final Request request : new ArrayList<>(requests)) {
+            mRequests.remove(request.mRequestId, request);
+            removeFromIndex(mTagRequestMap, request.mTag, request);
             request.cancel();
         }
     }
 
     /**
-     * Helper method to return a context's request list.
+     * Helper method to return a context's request map.
      *
-     * @param context A list of requests.
+     * @param context A context.
+     * @return The context's request map or null if the context has no
+     * requests.
+     */
+    private ConcurrentMap<Integer, Request> getRequests(Context context) {
+        return context != null ? mContextRequestMap.get(context) : null;
+    }
+
+    /**
+     * Returns the registered request with the specified request id.
+     *
+     * @param requestId A request id.
+     * @return The matching request or null if no such request is registered.
+     */
+    public Request getRequest(int requestId) {
+        return mRequests.get(requestId);
+    }
+
+    /**
+     * Returns all active requests that were built with the specified tag.
+     * Only the requests recorded for the tag in the tag index are visited.
+     *
+     * @param tag A request tag.
+     * @return A new list containing the matching requests.
      */
     @NonNull
-    private List<Request> getRequests(Context context) {
-        List<Request> requests = mActivityRequestMap.get(context);
-        return requests != null ? requests : new ArrayList<Request>();
+    public List<Request> getTaggedRequests(@NonNull String tag) {
+        ConcurrentMap<Integer, Request> requests = mTagRequestMap.get(tag);
+        return requests != null
+               ? new ArrayList<Request>(requests.values())
+               : new ArrayList<Request>();
     }
 
     /**
      * Checks if a given request is currently attached to the specified
      * context.
      *
-     * @param context The context to search in.
+     * @param context The context to search in (may be null if the request's
+     *                context has been garbage collected).
      * @param request The request to search for.
-     * @return {@code true} if the context request list contains this request,
+     * @return {@code true} if the context request map contains this request,
      * {@code false} if not.
      */
     public boolean hasRequest(Context context, Request request) {
-        return getRequests(context).contains(request);
+        ConcurrentMap<Integer, Request> requests = getRequests(context);
+        return requests != null && requests.get(request.mRequestId) == request;
     }
 
     /**
@@ -143,33 +271,31 @@ class RequestManager
      * @return The number of active request for the specified context.
      */
     public int getRequestCount(Context context) {
-        List<Request> requests = getRequests(context);
-        return requests.size();
+        ConcurrentMap<Integer, Request> requests = getRequests(context);
+        return requests != null ? requests.size() : 0;
     }
 
     /**
-     * Removes the request from the context request map and removes the context
-     * from the map if its list becomes empty.
+     * Removes the request from the context and tag request maps and removes
+     * the context or tag from its map if its request map becomes empty.
      *
      * @param request The request to recycle.
      */
     public void recycleRequest(Request request) {
-        List<Request> requests = getRequests(request.mContext);
-        if (requests.contains(request)) {
-            // Remove the request.
-            requests.remove(request);
-            if (requests.isEmpty()) {
-                // Remove the context.
-                mActivityRequestMap.remove(request.mContext);
-            }
+        boolean registered = mRequests.remove(request.mRequestId, request);
+        removeFromIndex(mTagRequestMap, request.mTag, request);
 
+        Context context = request.getContext();
+        if (context != null
+                && removeFromIndex(mContextRequestMap, context, request)) {
             return;
         }
 
-        // Since this request was never bound to a context, make sure that
-        // it wasn't started. Started requests are required to be bound
-        // a context by calling addRequest().
-        if (request.hasStarted()) {
+        // Since this request was never bound to a context (or to a context
+        // that has since been destroyed), make sure that it wasn't started.
+        // Started requests are required to be bound a context by calling
+        // addRequest().
+        if (!registered && request.hasStarted()) {
             throw new IllegalStateException(
                     "Attempt to recycle an unbound request");
         }
@@ -214,9 +340,12 @@ class RequestManager
     public void onActivityDestroyed(Activity activity) {
         // Allow downloads to continue during a configuration change so that
         // they have the opportunity to cache their results even if they will
-        // be unable to post those results to request targets.
+        // be unable to post those results to request targets. The activity's
+        // entry is removed in either case so that it is not kept alive.
         if (!activity.isChangingConfigurations()) {
             cancelRequests(activity);
+        } else {
+            mContextRequestMap.remove(activity);
         }
     }
 }
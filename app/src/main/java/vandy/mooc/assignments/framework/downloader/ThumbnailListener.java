@@ -0,0 +1,13 @@
+package vandy.mooc.assignments.framework.downloader;
+
+/**
+ * An extended RequestListener that is also notified when a cached thumbnail
+ * has been displayed in the target while the full size resource is being
+ * loaded (see RequestCreator.thumbnail()).
+ */
+public interface ThumbnailListener<R> extends RequestListener<R> {
+    /**
+     * Called when a thumbnail has been displayed in the target.
+     */
+    void onThumbnailReady(R thumbnail);
+}
@@ -5,8 +5,12 @@ import android.support.annotation.CallSuper;
 import android.support.annotation.MainThread;
 import android.support.annotation.Nullable;
 import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 
 import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import vandy.mooc.assignments.framework.utils.Preconditions;
 import vandy.mooc.assignments.framework.utils.Utils;
@@ -19,6 +23,10 @@ import vandy.mooc.assignments.framework.utils.Utils;
  * view target and the stored request makes is straightforward to determine if a
  * view has been recycled and therefore should have it's request cancelled for
  * starting a new one.
+ * <p/>
+ * View targets also provide the size of the view so that requests that do
+ * not specify an explicit resize size can be decoded to the size at which
+ * the resource is actually displayed (see getSize()).
  *
  * @param <V> Any type of view.
  * @param <R> The encoded data resource type supported by this view target.
@@ -30,6 +38,13 @@ public abstract class ViewTarget<V extends View, R> implements Target<R> {
      */
     private final WeakReference<V> mViewReference;
 
+    /**
+     * Size requests waiting for their view to be laid out, keyed by view
+     * (only accessed from the main thread).
+     */
+    private static final Map<View, SizeDeterminer> sPendingSizes =
+            new WeakHashMap<>();
+
     /**
      * Constructor. Keeps a weak reference to the passed view.
      *
@@ -52,6 +67,68 @@ public abstract class ViewTarget<V extends View, R> implements Target<R> {
         return tag != null && tag instanceof Request ? (Request) tag : null;
     }
 
+    /**
+     * Package only helper that cancels a pending getSize() request for the
+     * passed view.
+     *
+     * @param view A view.
+     * @return {@code true} if a size request was pending; {@code false} if
+     * not.
+     */
+    @MainThread
+    static boolean cancelPendingSize(View view) {
+        Utils.assertMainThread();
+        SizeDeterminer determiner = sPendingSizes.remove(view);
+        if (determiner != null) {
+            determiner.unregister();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Determines the size (excluding padding) at which the target view
+     * displays a resource and passes it to the callback. If the view has
+     * already been laid out (or has a fixed layout size) the callback is
+     * invoked immediately. Otherwise, the callback is deferred until the
+     * view's first pre-draw pass. Any size request that is still pending for
+     * this view is cancelled. If the view has been GC'd, the callback is
+     * never invoked.
+     *
+     * @param callback The callback that receives the view size.
+     */
+    @MainThread
+    public void getSize(SizeReadyCallback callback) {
+        Utils.assertMainThread();
+        V view = getView();
+        if (view == null) {
+            return;
+        }
+
+        cancelPendingSize(view);
+
+        SizeDeterminer determiner = new SizeDeterminer(view, callback);
+        if (determiner.resolveSize()) {
+            determiner.notifySizeReady();
+        } else {
+            sPendingSizes.put(view, determiner);
+            determiner.register();
+        }
+    }
+
+    /**
+     * Cancels a pending getSize() request for this target's view.
+     *
+     * @return {@code true} if a size request was pending; {@code false} if
+     * not.
+     */
+    @MainThread
+    public boolean cancelPendingSize() {
+        V view = getView();
+        return view != null && cancelPendingSize(view);
+    }
+
     /**
      * Hook method called to determine if the target has expired. This will
      * happen, for example, if the target implementation contains a weak
@@ -207,4 +284,214 @@ public abstract class ViewTarget<V extends View, R> implements Target<R> {
         // Release the weak reference to the view.
         mViewReference.clear();
     }
+
+    /**
+     * Callback interface used by getSize().
+     */
+    public interface SizeReadyCallback {
+        /**
+         * Called on the main thread once the view size is known.
+         *
+         * @param width  The view width excluding padding.
+         * @param height The view height excluding padding.
+         */
+        void onSizeReady(int width, int height);
+    }
+
+    /**
+     * Resolves the size of a view, waiting for its first pre-draw pass if it
+     * has not yet been laid out. While the view is detached from its window,
+     * the pre-draw listener is removed so that the window's tree observer
+     * does not retain this determiner. The pending request itself is kept
+     * (weakly keyed by the view) so that it resumes if the view is
+     * re-attached and so that cancelPendingSize() still finds it, which lets
+     * the caller account for a request that will never be dispatched.
+     */
+    private static final class SizeDeterminer
+            implements ViewTreeObserver.OnPreDrawListener,
+            View.OnAttachStateChangeListener {
+        /**
+         * The view being measured. A weak reference since this determiner is
+         * a value in the weakly keyed pending size map.
+         */
+        private final WeakReference<View> mViewReference;
+
+        /**
+         * The callback that receives the size.
+         */
+        private final SizeReadyCallback mCallback;
+
+        /**
+         * The resolved size (set by resolveSize()).
+         */
+        private int mWidth;
+        private int mHeight;
+
+        /**
+         * Constructor.
+         *
+         * @param view     The view to measure.
+         * @param callback The callback that receives the size.
+         */
+        SizeDeterminer(View view, SizeReadyCallback callback) {
+            mViewReference = new WeakReference<>(view);
+            mCallback = callback;
+        }
+
+        /**
+         * Registers this determiner with the view's tree observer.
+         */
+        void register() {
+            View view = mViewReference.get();
+            if (view != null) {
+                view.getViewTreeObserver().addOnPreDrawListener(this);
+                view.addOnAttachStateChangeListener(this);
+            }
+        }
+
+        /**
+         * Unregisters this determiner from the view's tree observer.
+         */
+        void unregister() {
+            View view = mViewReference.get();
+            if (view != null) {
+                removePreDrawListener(view);
+                view.removeOnAttachStateChangeListener(this);
+            }
+        }
+
+        /**
+         * Removes this determiner from the view's tree observer.
+         *
+         * @param view The measured view.
+         */
+        private void removePreDrawListener(View view) {
+            ViewTreeObserver observer = view.getViewTreeObserver();
+            if (observer.isAlive()) {
+                observer.removeOnPreDrawListener(this);
+            }
+        }
+
+        /**
+         * Attempts to determine the view size.
+         *
+         * @return {@code true} if the size was resolved; {@code false} if the
+         * view has not yet been laid out.
+         */
+        boolean resolveSize() {
+            View view = mViewReference.get();
+            if (view == null) {
+                return false;
+            }
+
+            boolean laidOut = !view.isLayoutRequested();
+            ViewGroup.LayoutParams params = view.getLayoutParams();
+
+            int width = getTargetDimension(
+                    laidOut ? view.getWidth() : 0,
+                    params != null ? params.width : 0,
+                    view.getPaddingLeft() + view.getPaddingRight());
+            int height = getTargetDimension(
+                    laidOut ? view.getHeight() : 0,
+                    params != null ? params.height : 0,
+                    view.getPaddingTop() + view.getPaddingBottom());
+
+            // A view that wraps its content (like an image view that adjusts
+            // its bounds) may be laid out with only one known dimension. In
+            // that case the image is sampled to a square of the known size.
+            if (laidOut && (width > 0 || height > 0)) {
+                if (width <= 0) {
+                    width = height;
+                } else if (height <= 0) {
+                    height = width;
+                }
+            }
+
+            if (width <= 0 || height <= 0) {
+                return false;
+            }
+
+            mWidth = width;
+            mHeight = height;
+            return true;
+        }
+
+        /**
+         * Passes the resolved size to the callback.
+         */
+        void notifySizeReady() {
+            mCallback.onSizeReady(mWidth, mHeight);
+        }
+
+        /**
+         * Returns a single target dimension from the laid out view size or,
+         * if the view has not been laid out, from its fixed layout size.
+         *
+         * @param viewSize  The laid out size or 0 if not laid out.
+         * @param paramSize The layout parameter size.
+         * @param padding   The total padding along this dimension.
+         * @return The dimension or 0 if it cannot yet be determined.
+         */
+        private static int getTargetDimension(
+                int viewSize, int paramSize, int padding) {
+            int size = viewSize > 0 ? viewSize : paramSize;
+            return size > 0 ? Math.max(1, size - padding) : 0;
+        }
+
+        /**
+         * Called before the view tree is drawn. Once the view size is known,
+         * this determiner is removed and the callback invoked.
+         *
+         * @return Always {@code true} to proceed with the current drawing pass.
+         */
+        @Override
+        public boolean onPreDraw() {
+            View view = mViewReference.get();
+            if (view == null || sPendingSizes.get(view) != this) {
+                unregister();
+                return true;
+            }
+
+            if (resolveSize()) {
+                unregister();
+                sPendingSizes.remove(view);
+                notifySizeReady();
+            }
+
+            return true;
+        }
+
+        /**
+         * Resumes waiting for the pre-draw pass when the view is re-attached.
+         *
+         * @param view The attached view.
+         */
+        @Override
+        public void onViewAttachedToWindow(View view) {
+            if (sPendingSizes.get(view) == this) {
+                // The listener may already have been merged in from the
+                // view's floating tree observer.
+                removePreDrawListener(view);
+                view.getViewTreeObserver().addOnPreDrawListener(this);
+            } else {
+                unregister();
+            }
+        }
+
+        /**
+         * Stops listening for pre-draw passes while the view is detached.
+         * The pending size request is kept so that it can still be cancelled
+         * (or resumed if the view is re-attached).
+         *
+         * @param view The detached view.
+         */
+        @Override
+        public void onViewDetachedFromWindow(View view) {
+            if (sPendingSizes.get(view) == this) {
+                removePreDrawListener(view);
+            } else {
+                unregister();
+            }
+        }
+    }
 }
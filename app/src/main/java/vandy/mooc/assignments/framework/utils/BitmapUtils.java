@@ -3,11 +3,14 @@ package vandy.mooc.assignments.framework.utils;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
 
+import vandy.mooc.assignments.framework.downloader.BitmapPool;
+
 /**
  * BitmapUtils
  * <p/>
@@ -26,10 +29,17 @@ public final class BitmapUtils {
         throw new AssertionError();
     }
 
+    /**
+     * MIME type of JPEG sources which never contain an alpha channel.
+     */
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+
     /**
      * This returns the sample size that should be used when down-sampling the
-     * image. This ensures that the image is scaled appropriately with respect
-     * to it's final display size.
+     * image. This is the largest power of 2 sample size for which the sampled
+     * image still covers the requested size (both sampled dimensions are at
+     * least as large as the requested dimensions). A requested dimension of
+     * 0 or less is treated as the source dimension.
      */
     @SuppressWarnings("WeakerAccess")
     public static int calculateInSampleSize(
@@ -37,23 +47,171 @@ public final class BitmapUtils {
         // Raw height and width of image
         final int height = options.outHeight;
         final int width = options.outWidth;
+        if (reqWidth <= 0) {
+            reqWidth = width;
+        }
+        if (reqHeight <= 0) {
+            reqHeight = height;
+        }
+
+        // Keep doubling the sample size as long as the next sample size
+        // still produces an image that is at least as large as the requested
+        // size in both dimensions.
         int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= reqWidth
+                && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
 
-        if (height > reqHeight || width > reqWidth) {
+        return inSampleSize;
+    }
 
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
+    /**
+     * Sets up the passed options (which must already contain the source
+     * bounds) to decode a bitmap that exactly covers the requested size.
+     * The power of 2 sample size reduces the size as far as possible while
+     * decoding and the remaining reduction is performed by the decoder using
+     * inDensity/inTargetDensity scaling, so that one dimension of the
+     * decoded bitmap matches the requested dimension and the other is at
+     * least as large as requested. The preferred config is only used for
+     * opaque (JPEG) sources when it is RGB_565; all other sources are
+     * decoded as ARGB_8888.
+     * <p/>
+     * Package-private so that it can be unit tested.
+     *
+     * @param options         Decode options containing the source bounds.
+     * @param reqWidth        The requested width (0 for the source width).
+     * @param reqHeight       The requested height (0 for the source height).
+     * @param preferredConfig An optional preferred bitmap config.
+     */
+    @SuppressWarnings("WeakerAccess")
+    static void setDecodeOptions(
+            BitmapFactory.Options options,
+            int reqWidth,
+            int reqHeight,
+            @Nullable Bitmap.Config preferredConfig) {
+        if (reqWidth <= 0) {
+            reqWidth = options.outWidth;
+        }
+        if (reqHeight <= 0) {
+            reqHeight = options.outHeight;
+        }
 
-            // Calculate the largest inSampleSize value that is a power of 2
-            // and keeps both height and width larger than the requested
-            // height and width.
-            while ((halfHeight / inSampleSize) > reqHeight
-                    && (halfWidth / inSampleSize) > reqWidth) {
-                inSampleSize *= 2;
+        options.inSampleSize =
+                calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+
+        // Scale the sampled image down to the requested size.
+        int sampledWidth = getSampledSize(options.outWidth, options);
+        int sampledHeight = getSampledSize(options.outHeight, options);
+        if (sampledWidth > reqWidth && sampledHeight > reqHeight) {
+            options.inScaled = true;
+            if ((float) reqWidth / sampledWidth
+                    >= (float) reqHeight / sampledHeight) {
+                options.inDensity = sampledWidth;
+                options.inTargetDensity = reqWidth;
+            } else {
+                options.inDensity = sampledHeight;
+                options.inTargetDensity = reqHeight;
             }
         }
 
-        return inSampleSize;
+        if (preferredConfig == Bitmap.Config.RGB_565) {
+            options.inPreferredConfig =
+                    MIME_TYPE_JPEG.equals(options.outMimeType)
+                    ? Bitmap.Config.RGB_565
+                    : Bitmap.Config.ARGB_8888;
+        } else if (preferredConfig != null) {
+            options.inPreferredConfig = preferredConfig;
+        }
+    }
+
+    /**
+     * Returns the size of a source dimension once it has been sampled and
+     * scaled by the decoder using the passed options.
+     * Package-private so that it can be unit tested.
+     *
+     * @param size    A source dimension.
+     * @param options Decode options.
+     * @return The decoded dimension.
+     */
+    @SuppressWarnings("WeakerAccess")
+    static int getSampledSize(int size, BitmapFactory.Options options) {
+        // The decoder rounds sampled dimensions up.
+        int sampleSize = Math.max(options.inSampleSize, 1);
+        int sampled = (size + sampleSize - 1) / sampleSize;
+        if (options.inDensity > 0 && options.inTargetDensity > 0) {
+            sampled = (int) (sampled * (float) options.inTargetDensity
+                    / options.inDensity + 0.5f);
+        }
+
+        return sampled;
+    }
+
+    /**
+     * Restores the density of a bitmap that was scaled by the decoder using
+     * inDensity/inTargetDensity so that it is not scaled again when drawn.
+     *
+     * @param bitmap  A decoded bitmap or null.
+     * @param options The options used to decode the bitmap.
+     * @return The passed bitmap.
+     */
+    @Nullable
+    private static Bitmap restoreDensity(
+            @Nullable Bitmap bitmap, BitmapFactory.Options options) {
+        if (bitmap != null && options.inDensity > 0) {
+            bitmap.setDensity(
+                    Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Returns the number of bytes used to store a single pixel of the passed
+     * bitmap config.
+     *
+     * @param config A bitmap config.
+     * @return The number of bytes per pixel.
+     */
+    public static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ARGB_8888:
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Sets up the passed options to decode into a reusable bitmap from the
+     * passed pool. The options must already contain the source bounds and
+     * the sample size and scaling (see setDecodeOptions()). All bitmaps
+     * decoded with these options are mutable so that they can be pooled once
+     * they are no longer used.
+     *
+     * @param options Decode options containing the source bounds.
+     * @param pool    An optional bitmap pool.
+     */
+    private static void setReusableBitmap(
+            BitmapFactory.Options options, @Nullable BitmapPool pool) {
+        if (pool == null) {
+            return;
+        }
+
+        options.inMutable = true;
+
+        int width = getSampledSize(options.outWidth, options);
+        int height = getSampledSize(options.outHeight, options);
+        Bitmap.Config config = options.inPreferredConfig != null
+                               ? options.inPreferredConfig
+                               : Bitmap.Config.ARGB_8888;
+
+        options.inBitmap = pool.get(width, height, config);
     }
 
     /**
@@ -62,28 +220,51 @@ public final class BitmapUtils {
      */
     public static Bitmap decodeSampledBitmapFromFile(
             String pathName, int width, int height) {
+        return decodeSampledBitmapFromFile(pathName, width, height, null);
+    }
+
+    /**
+     * This will return a bitmap that is loaded and appropriately scaled from
+     * the filePath parameter. If a pool is passed, the decoder will attempt to
+     * reuse one of its bitmaps rather than allocating a new one.
+     */
+    public static Bitmap decodeSampledBitmapFromFile(
+            String pathName, int width, int height, @Nullable BitmapPool pool) {
+        return decodeSampledBitmapFromFile(pathName, width, height, null, pool);
+    }
+
+    /**
+     * This will return a bitmap that is loaded and scaled to exactly cover
+     * the requested size from the filePath parameter (see
+     * setDecodeOptions()). If a pool is passed, the decoder will attempt to
+     * reuse one of its bitmaps rather than allocating a new one.
+     */
+    public static Bitmap decodeSampledBitmapFromFile(
+            String pathName,
+            int width,
+            int height,
+            @Nullable Bitmap.Config preferredConfig,
+            @Nullable BitmapPool pool) {
 
         // First decode with inJustDecodeBounds=true to check dimensions.
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(pathName, options);
 
-        // If either width or height is passed in as 0, then use the actual
-        // stored image dimension.
-        if (width == 0) {
-            width = options.outWidth;
-        }
-        if (height == 0) {
-            height = options.outHeight;
-        }
-
-        // Calculate inSampleSize
-        options.inSampleSize =
-                calculateInSampleSize(options, width, height);
+        // Set the sample size, scaling, and config.
+        setDecodeOptions(options, width, height, preferredConfig);
+        setReusableBitmap(options, pool);
 
-        // Decode bitmap with inSampleSize set
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(pathName, options);
+        try {
+            return restoreDensity(
+                    BitmapFactory.decodeFile(pathName, options), options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused, so allocate a new one.
+            Log.w(TAG, "Unable to reuse pooled bitmap: " + e);
+            options.inBitmap = null;
+            return restoreDensity(
+                    BitmapFactory.decodeFile(pathName, options), options);
+        }
     }
 
     /**
@@ -96,6 +277,35 @@ public final class BitmapUtils {
      */
     public static Bitmap decodeSampledBitmapFromStream(
             InputStream inputStream, int width, int height) {
+        return decodeSampledBitmapFromStream(inputStream, width, height, null);
+    }
+
+    /**
+     * Decodes from an input stream that supports mark and reset operations
+     * (see above). If a pool is passed, the decoder will attempt to reuse one
+     * of its bitmaps rather than allocating a new one.
+     */
+    public static Bitmap decodeSampledBitmapFromStream(
+            InputStream inputStream,
+            int width,
+            int height,
+            @Nullable BitmapPool pool) {
+        return decodeSampledBitmapFromStream(
+                inputStream, width, height, null, pool);
+    }
+
+    /**
+     * Decodes from an input stream that supports mark and reset operations
+     * (see above) to a bitmap scaled to exactly cover the requested size
+     * (see setDecodeOptions()). If a pool is passed, the decoder will attempt
+     * to reuse one of its bitmaps rather than allocating a new one.
+     */
+    public static Bitmap decodeSampledBitmapFromStream(
+            InputStream inputStream,
+            int width,
+            int height,
+            @Nullable Bitmap.Config preferredConfig,
+            @Nullable BitmapPool pool) {
         if ((width != 0 || height != 0) && !inputStream.markSupported()) {
             throw new IllegalArgumentException(
                     "Bitmap decoding requires an input stream that supports "
@@ -119,22 +329,29 @@ public final class BitmapUtils {
             return null;
         }
 
-        // If either width or height is passed in as 0, then use the actual
-        // stored image dimension.
-        if (width == 0) {
-            width = options.outWidth;
-        }
-        if (height == 0) {
-            height = options.outHeight;
-        }
-
-        // Calculate inSampleSize
-        options.inSampleSize =
-                calculateInSampleSize(options, width, height);
+        // Set the sample size, scaling, and config.
+        setDecodeOptions(options, width, height, preferredConfig);
+        setReusableBitmap(options, pool);
 
-        // Decode bitmap with inSampleSize set
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeStream(inputStream, null, options);
+        try {
+            return restoreDensity(
+                    BitmapFactory.decodeStream(inputStream, null, options),
+                    options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused, so allocate a new one.
+            Log.w(TAG, "Unable to reuse pooled bitmap: " + e);
+            options.inBitmap = null;
+            try {
+                inputStream.reset();
+            } catch (IOException ioe) {
+                Log.e(TAG, "Failed to reset input stream during bitmap "
+                        + "decoding");
+                return null;
+            }
+            return restoreDensity(
+                    BitmapFactory.decodeStream(inputStream, null, options),
+                    options);
+        }
     }
 
     /**
@@ -1,13 +1,14 @@
 package vandy.mooc.assignments.framework.utils;
 
+import android.app.ActivityManager;
 import android.content.Context;
-import android.net.Uri;
 import android.os.StatFs;
 import android.support.annotation.Nullable;
 
 import java.io.File;
-
-import vandy.mooc.assignments.framework.downloader.Request;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * A utility class containing disk cache management methods.
@@ -38,6 +39,13 @@ public final class CacheUtils {
     private static final int MIN_DISK_CACHE_SIZE = 5 * 1024 * 1024; // 5MB
     private static final int MAX_DISK_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
     private static final int MAX_DISK_CACHE_AS_PERCENT = 2; // 2%
+    private static final int MAX_MEMORY_CACHE_AS_PERCENT = 15; // 15%
+    private static final int MAX_BITMAP_POOL_AS_PERCENT = 5; // 5%
+
+    /**
+     * Hex digits used to format hashed cache keys.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     /**
      * Ensure this class is only used as a utility.
@@ -91,6 +99,30 @@ public final class CacheUtils {
                                 + fileName);
     }
 
+    /**
+     * Hashes the passed string into a fixed length (32 hex character, 128-bit
+     * MD5) cache key that is safe to use as a file name regardless of the
+     * length or content of the passed string.
+     *
+     * @param string Any string.
+     * @return A 32 character lower case hex string.
+     */
+    public static String hashKey(String string) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(string.getBytes("UTF-8"));
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+                chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both MD5 and UTF-8 are guaranteed to be supported.
+            throw new AssertionError(e);
+        }
+    }
+
     /**
      * Creates the application cache directory if it does not already exist.
      *
@@ -124,6 +156,39 @@ public final class CacheUtils {
                         MIN_DISK_CACHE_SIZE);
     }
 
+    /**
+     * Returns the maximum number of bytes that should be used by the bitmap
+     * memory cache. The size is a fixed percentage of the per-application
+     * heap limit reported by the activity manager (memory class).
+     *
+     * @param context Any context.
+     * @return The memory cache size in bytes.
+     */
+    public static int calculateMemoryCacheSize(Context context) {
+        ActivityManager am =
+                (ActivityManager) context.getSystemService(
+                        Context.ACTIVITY_SERVICE);
+        // Memory class is in megabytes.
+        long memoryClass = am.getMemoryClass() * 1024L * 1024L;
+        return (int) (memoryClass * MAX_MEMORY_CACHE_AS_PERCENT / 100);
+    }
+
+    /**
+     * Returns the maximum number of bytes that should be held by the
+     * reusable bitmap pool. Like the memory cache, the size is a fixed
+     * percentage of the application memory class.
+     *
+     * @param context Any context.
+     * @return The bitmap pool size in bytes.
+     */
+    public static int calculateBitmapPoolSize(Context context) {
+        ActivityManager am =
+                (ActivityManager) context.getSystemService(
+                        Context.ACTIVITY_SERVICE);
+        long memoryClass = am.getMemoryClass() * 1024L * 1024L;
+        return (int) (memoryClass * MAX_BITMAP_POOL_AS_PERCENT / 100);
+    }
+
     /**
      * Returns a unique temporary cache file suitable for downloading streamed
      * data that can then be moved to a permanent cache file. To provide better
@@ -171,48 +236,4 @@ public final class CacheUtils {
         return FileUtils.createUniqueFileName(
                 getTempDirPathName(context), extension);
     }
-
-    /**
-     * Deletes all cached files with the specified tag.
-     *
-     * @param context A context.
-     * @param tag The tag to match.
-     * @return The count of deleted files.
-     */
-    public static int clearTaggedFiles(Context context, String tag) {
-        return walkAndDelete(getCacheDirPathName(context), tag);
-    }
-
-    /**
-     * Recursively walks the cache directory and deletes all files with the
-     * specified tag.
-     *
-     * @param path The directory to walk.
-     * @param tag The tag to match.
-     * @return The count of deleted files.
-     */
-    private static int walkAndDelete(String path, String tag) {
-        File root = new File(path);
-        File[] files = root.listFiles();
-
-        int count = 0;
-
-        if (files == null) {
-            return count;
-        }
-
-        for (File file : files) {
-            if (file.isDirectory()) {
-                count += walkAndDelete(file.getAbsolutePath(), tag);
-            } else {
-                if (tag.equals(Request.getDecodedTag(Uri.fromFile(file)))) {
-                    if (file.delete()) {
-                        count++;
-                    }
-                }
-            }
-        }
-
-        return count;
-    }
 }
@@ -11,8 +11,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.UUID;
 
@@ -24,9 +27,20 @@ import vandy.mooc.assignments.framework.application.Constants;
 @SuppressWarnings("WeakerAccess")
 public final class FileUtils {
     /**
-     * Default buffer size used for copying files.
+     * Size of the pooled buffers used for channel transfers.
      */
-    private static final int BUFFER_LENGTH = 1024;
+    public static final int TRANSFER_BUFFER_LENGTH = 64 * 1024;
+
+    /**
+     * Maximum number of idle transfer buffers kept for reuse.
+     */
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    /**
+     * Idle direct transfer buffers (guarded by itself).
+     */
+    private static final ArrayDeque<ByteBuffer> sBufferPool =
+            new ArrayDeque<>();
 
     /**
      * Ensure this class is only used as a utility.
@@ -333,13 +347,122 @@ public final class FileUtils {
      * @throws IOException
      */
     public static void copy(File src, File dst) throws IOException {
-        try (InputStream in = new FileInputStream(src);
-             OutputStream out = new FileOutputStream(dst)) {
-            // Transfer bytes from in to out
-            byte[] buf = new byte[BUFFER_LENGTH];
-            int len;
-            while ((len = in.read(buf)) > 0) {
-                out.write(buf, 0, len);
+        try (FileChannel in = new FileInputStream(src).getChannel();
+             FileChannel out = new FileOutputStream(dst).getChannel()) {
+            transferFileTo(in, 0, out);
+        }
+    }
+
+    /**
+     * Transfers all bytes of a file channel starting at the passed position
+     * to a writable channel. The file system is allowed to transfer the bytes
+     * directly; if it stops making progress (transferTo returns 0, e.g. when
+     * the file shrinks or the destination is non-blocking), the remaining
+     * bytes are copied through a pooled buffer instead. In either case the
+     * source channel is left positioned after the last transferred byte, as
+     * if the bytes had been read, so that a stream sharing the channel is
+     * consumed.
+     *
+     * @param src      Source file channel.
+     * @param position The position of the first byte to transfer.
+     * @param dst      Destination channel.
+     * @throws IOException
+     */
+    public static void transferFileTo(FileChannel src,
+                                      long position,
+                                      WritableByteChannel dst)
+            throws IOException {
+        // transferTo may transfer fewer bytes than requested and never
+        // changes the channel position.
+        long size = src.size();
+        while (position < size) {
+            long count = src.transferTo(position, size - position, dst);
+            if (count <= 0) {
+                src.position(position);
+                transfer(src, dst);
+                return;
+            }
+            position += count;
+        }
+        src.position(position);
+    }
+
+    /**
+     * Transfers all remaining bytes from a readable channel to a writable
+     * channel using a pooled direct buffer.
+     *
+     * @param src Source channel.
+     * @param dst Destination channel.
+     * @return The number of transferred bytes.
+     * @throws IOException
+     */
+    public static long transfer(ReadableByteChannel src,
+                                WritableByteChannel dst)
+            throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        long count = 0;
+
+        try {
+            for (int n; (n = src.read(buffer)) >= 0; ) {
+                count += n;
+                if (!buffer.hasRemaining()) {
+                    writeFully(buffer, dst);
+                }
+            }
+            writeFully(buffer, dst);
+        } finally {
+            releaseBuffer(buffer);
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes all bytes between the start and the position of the passed
+     * buffer to a channel and then clears the buffer for the next read.
+     *
+     * @param buffer A buffer that has just been filled.
+     * @param dst    Destination channel.
+     * @throws IOException
+     */
+    public static void writeFully(ByteBuffer buffer, WritableByteChannel dst)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            dst.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns a cleared direct buffer of TRANSFER_BUFFER_LENGTH bytes from
+     * the buffer pool (or a new buffer if the pool is empty). The buffer
+     * should be returned to the pool with releaseBuffer() when no longer
+     * used.
+     *
+     * @return A cleared direct buffer.
+     */
+    public static ByteBuffer acquireBuffer() {
+        synchronized (sBufferPool) {
+            ByteBuffer buffer = sBufferPool.poll();
+            if (buffer != null) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+
+        return ByteBuffer.allocateDirect(TRANSFER_BUFFER_LENGTH);
+    }
+
+    /**
+     * Returns a buffer obtained from acquireBuffer() to the buffer pool.
+     *
+     * @param buffer A buffer that is no longer used.
+     */
+    public static void releaseBuffer(ByteBuffer buffer) {
+        synchronized (sBufferPool) {
+            if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+                sBufferPool.push(buffer);
             }
         }
     }
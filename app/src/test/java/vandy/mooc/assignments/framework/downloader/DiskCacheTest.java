@@ -0,0 +1,159 @@
+package vandy.mooc.assignments.framework.downloader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the DiskCache journal replay.
+ */
+public class DiskCacheTest {
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void journalReplay_restoresEntriesTagsAndMetadata()
+            throws Exception {
+        File directory = mFolder.newFolder("cache");
+        DiskCache cache = DiskCache.open(directory, MAX_SIZE);
+        put(cache, "aa01", 10, "tag", "meta1");
+        put(cache, "bb02", 20, null, "meta2");
+        cache.close();
+
+        cache = DiskCache.open(directory, MAX_SIZE);
+        Map<String, String> snapshot = cache.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("meta1", snapshot.get("aa01"));
+        assertEquals("meta2", snapshot.get("bb02"));
+        assertEquals(30, cache.size());
+        assertEquals(1, cache.removeTag("tag"));
+        cache.close();
+    }
+
+    @Test
+    public void journalReplay_ignoresTruncatedLastLine() throws Exception {
+        File directory = mFolder.newFolder("cache");
+        DiskCache cache = DiskCache.open(directory, MAX_SIZE);
+        put(cache, "aa01", 10, "tag", "meta1");
+        put(cache, "bb02", 20, null, "meta2");
+        cache.close();
+
+        // Simulate a write that was torn part way through a record.
+        append(new File(directory, DiskCache.JOURNAL_FILE), "CLEAN bb02 9");
+
+        cache = DiskCache.open(directory, MAX_SIZE);
+        Map<String, String> snapshot = cache.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("meta1", snapshot.get("aa01"));
+        assertEquals("meta2", snapshot.get("bb02"));
+        assertEquals(30, cache.size());
+        assertEquals(1, cache.removeTag("tag"));
+        cache.close();
+    }
+
+    @Test
+    public void journalReplay_appliesBufferedReadRecords() throws Exception {
+        File directory = mFolder.newFolder("cache");
+        DiskCache cache = DiskCache.open(directory, MAX_SIZE);
+        put(cache, "aa01", 10, null, null);
+        put(cache, "bb02", 20, null, null);
+        assertNotNull(cache.get("aa01"));
+        cache.close();
+
+        // The READ record makes aa01 the most recently used entry.
+        cache = DiskCache.open(directory, MAX_SIZE);
+        assertEquals("[bb02, aa01]", cache.snapshot().keySet().toString());
+        cache.close();
+    }
+
+    @Test
+    public void journalReplay_removedEntryStaysRemoved() throws Exception {
+        File directory = mFolder.newFolder("cache");
+        DiskCache cache = DiskCache.open(directory, MAX_SIZE);
+        put(cache, "aa01", 10, null, null);
+        cache.remove("aa01");
+        cache.close();
+
+        cache = DiskCache.open(directory, MAX_SIZE);
+        assertNull(cache.get("aa01"));
+        assertEquals(0, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void journalReplay_restoresEmptyTag() throws Exception {
+        File directory = mFolder.newFolder("cache");
+        DiskCache cache = DiskCache.open(directory, MAX_SIZE);
+        put(cache, "aa01", 10, "", null);
+        put(cache, "bb02", 20, "", "meta2");
+        put(cache, "cc03", 30, "tag", "");
+        cache.close();
+
+        cache = DiskCache.open(directory, MAX_SIZE);
+        Map<String, String> snapshot = cache.snapshot();
+        assertEquals(3, snapshot.size());
+        assertNull(snapshot.get("aa01"));
+        assertEquals("meta2", snapshot.get("bb02"));
+        assertEquals("", snapshot.get("cc03"));
+        assertEquals(60, cache.size());
+        assertEquals(2, cache.removeTag(""));
+        assertEquals(1, cache.removeTag("tag"));
+        cache.close();
+    }
+
+    @Test
+    public void journalReplay_restoresMetadataWithSpaces() throws Exception {
+        File directory = mFolder.newFolder("cache");
+        DiskCache cache = DiskCache.open(directory, MAX_SIZE);
+        put(cache, "aa01", 10, "a tag", "meta data  with spaces ");
+        put(cache, "bb02", 20, null, "%");
+        put(cache, "cc03", 30, null, " ");
+        cache.close();
+
+        cache = DiskCache.open(directory, MAX_SIZE);
+        Map<String, String> snapshot = cache.snapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals("meta data  with spaces ", snapshot.get("aa01"));
+        assertEquals("%", snapshot.get("bb02"));
+        assertEquals(" ", snapshot.get("cc03"));
+        assertEquals(60, cache.size());
+        assertEquals(1, cache.removeTag("a tag"));
+        cache.close();
+    }
+
+    /**
+     * Adds an entry whose file contains the passed number of bytes.
+     */
+    private void put(DiskCache cache,
+                     String key,
+                     int length,
+                     String tag,
+                     String metadata) throws IOException {
+        File source = mFolder.newFile();
+        try (OutputStream output = new FileOutputStream(source)) {
+            output.write(new byte[length]);
+        }
+        assertNotNull(cache.put(key, source, tag, metadata));
+    }
+
+    /**
+     * Appends text to a file.
+     */
+    private static void append(File file, String text) throws IOException {
+        try (OutputStream output = new FileOutputStream(file, true)) {
+            output.write(text.getBytes("UTF-8"));
+        }
+    }
+}
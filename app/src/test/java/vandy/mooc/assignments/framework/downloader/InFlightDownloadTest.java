@@ -0,0 +1,179 @@
+package vandy.mooc.assignments.framework.downloader;
+
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the hand off of an aborted in-flight download to the
+ * requests that are attached to it. The leader completes the download on a
+ * thread that has been interrupted (as it is by a cancel), and the restart
+ * is recorded instead of performing a real download.
+ */
+public class InFlightDownloadTest {
+    private ExecutorService mExecutor;
+    private RecordingDownload mInFlight;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadExecutor();
+        mInFlight = new RecordingDownload();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void cancelledLeaderRestartsLiveFollowerOnExecutor()
+            throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        assertTrue(mInFlight.attach(newRequest(), callback));
+
+        Thread leader = completeOnInterruptedThread(mExecutor);
+
+        assertTrue(mInFlight.mRestarted.await(5, TimeUnit.SECONDS));
+        assertNotNull(mInFlight.mRestartThread);
+        assertFalse(mInFlight.mRestartThread == leader);
+        assertFalse(mInFlight.mRestartInterrupted);
+        assertTrue(callback.mCompleted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, callback.mCount);
+        assertTrue(mInFlight.mAborted);
+    }
+
+    @Test
+    public void cancelledLeaderDoesNotRestartOnItsOwnThread()
+            throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Executor blocked = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        command.run();
+                    }
+                });
+            }
+        };
+
+        RecordingCallback callback = new RecordingCallback();
+        assertTrue(mInFlight.attach(newRequest(), callback));
+
+        // complete() must return without waiting for the restart.
+        completeOnInterruptedThread(blocked);
+        assertEquals(1, mInFlight.mRestarted.getCount());
+
+        release.countDown();
+        assertTrue(mInFlight.mRestarted.await(5, TimeUnit.SECONDS));
+        assertTrue(callback.mCompleted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectedRestartReportsFailure() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+
+        RecordingCallback callback = new RecordingCallback();
+        assertTrue(mInFlight.attach(newRequest(), callback));
+
+        completeOnInterruptedThread(rejecting);
+
+        assertTrue(callback.mCompleted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, callback.mCount);
+        assertNull(callback.mUri);
+        assertEquals(1, mInFlight.mRestarted.getCount());
+    }
+
+    @Test
+    public void completedDownloadRejectsLateAttach() throws Exception {
+        completeOnInterruptedThread(mExecutor);
+
+        assertFalse(mInFlight.attach(newRequest(), new RecordingCallback()));
+    }
+
+    /**
+     * Completes the in-flight download as aborted on a new thread that has
+     * been interrupted and waits for it to finish.
+     *
+     * @param executor The executor passed to complete().
+     * @return The leader thread.
+     */
+    private Thread completeOnInterruptedThread(final Executor executor)
+            throws InterruptedException {
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().interrupt();
+                mInFlight.complete(null, true, executor);
+            }
+        });
+        leader.start();
+        leader.join(5000);
+        assertFalse(leader.isAlive());
+        return leader;
+    }
+
+    private static Request newRequest() {
+        return new Request.Builder<>(null, null).build();
+    }
+
+    /**
+     * Records the thread that restarts the download and completes the
+     * restarted request's callback.
+     */
+    private static final class RecordingDownload
+            extends HttpDownloader.InFlightDownload {
+        final CountDownLatch mRestarted = new CountDownLatch(1);
+        volatile Thread mRestartThread;
+        volatile boolean mRestartInterrupted;
+
+        @Override
+        void restart(Request request, HttpDownloader.Callback callback) {
+            mRestartThread = Thread.currentThread();
+            mRestartInterrupted = Thread.currentThread().isInterrupted();
+            mRestarted.countDown();
+            callback.onDownloadCompleted(null);
+        }
+    }
+
+    private static final class RecordingCallback
+            implements HttpDownloader.Callback {
+        final CountDownLatch mCompleted = new CountDownLatch(1);
+        volatile int mCount;
+        volatile Uri mUri;
+
+        @Override
+        public void onDownloadCompleted(Uri uri) {
+            mUri = uri;
+            mCount++;
+            mCompleted.countDown();
+        }
+    }
+}
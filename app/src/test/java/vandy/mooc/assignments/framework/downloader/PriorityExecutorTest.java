@@ -0,0 +1,171 @@
+package vandy.mooc.assignments.framework.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the PriorityExecutor queue ordering. A single pool thread
+ * is blocked while tasks are queued so that the order in which the queued
+ * tasks then run is determined only by the queue.
+ */
+public class PriorityExecutorTest {
+    private PriorityExecutor mExecutor;
+    private CountDownLatch mRelease;
+    private final List<String> mRunOrder =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        mExecutor = new PriorityExecutor(1);
+        mRelease = new CountDownLatch(1);
+
+        // Occupy the only pool thread.
+        final CountDownLatch started = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void higherPrioritiesRunFirst() throws Exception {
+        submit("low", Priority.LOW);
+        submit("high", Priority.HIGH);
+        submit("normal", Priority.NORMAL);
+
+        assertEquals("[high, normal, low]", runQueuedTasks());
+    }
+
+    @Test
+    public void samePriorityRunsLastInFirstOut() throws Exception {
+        submit("a", Priority.NORMAL);
+        submit("b", Priority.NORMAL);
+        submit("c", Priority.NORMAL);
+
+        assertEquals("[c, b, a]", runQueuedTasks());
+    }
+
+    @Test
+    public void mixedPrioritiesAreLastInFirstOutWithinEachPriority()
+            throws Exception {
+        submit("low1", Priority.LOW);
+        submit("high1", Priority.HIGH);
+        submit("normal1", Priority.NORMAL);
+        submit("high2", Priority.HIGH);
+        submit("low2", Priority.LOW);
+
+        assertEquals("[high2, high1, normal1, low2, low1]", runQueuedTasks());
+    }
+
+    @Test
+    public void plainRunnablesAreQueuedAtNormalPriority() throws Exception {
+        submit("low", Priority.LOW);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mRunOrder.add("plain");
+            }
+        });
+        submit("high", Priority.HIGH);
+
+        assertEquals("[high, plain, low]", runQueuedTasks());
+    }
+
+    @Test
+    public void reprioritizeMovesPendingTask() throws Exception {
+        Future<?> first = submit("first", Priority.LOW);
+        submit("second", Priority.LOW);
+        submit("normal", Priority.NORMAL);
+
+        assertTrue(mExecutor.reprioritize(first, Priority.HIGH));
+
+        assertEquals("[first, normal, second]", runQueuedTasks());
+    }
+
+    @Test
+    public void reprioritizeIgnoresTaskThatIsNotQueued() throws Exception {
+        Future<?> task = submit("task", Priority.LOW);
+        assertTrue(mExecutor.remove((Runnable) task));
+
+        assertFalse(mExecutor.reprioritize(task, Priority.HIGH));
+    }
+
+    @Test
+    public void resubmitQueuesRemovedTaskWithNewPriority() throws Exception {
+        Future<?> paused = submit("paused", Priority.LOW);
+        submit("normal", Priority.NORMAL);
+        assertTrue(mExecutor.remove((Runnable) paused));
+
+        assertTrue(mExecutor.resubmit(paused, Priority.HIGH));
+
+        assertEquals("[paused, normal]", runQueuedTasks());
+    }
+
+    /**
+     * Queues a task that records its name when it runs.
+     */
+    private Future<?> submit(String name, Priority priority) {
+        return mExecutor.submit(new Task(name, priority));
+    }
+
+    /**
+     * Releases the pool thread and waits for all queued tasks to run.
+     *
+     * @return The names of the tasks in the order in which they ran.
+     */
+    private String runQueuedTasks() throws InterruptedException {
+        mExecutor.shutdown();
+        mRelease.countDown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        return mRunOrder.toString();
+    }
+
+    /**
+     * A prioritized task that records its name when it runs.
+     */
+    private final class Task
+            implements Runnable, PriorityExecutor.Prioritized {
+        private final String mName;
+        private final Priority mPriority;
+
+        Task(String name, Priority priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public void run() {
+            mRunOrder.add(mName);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package vandy.mooc.assignments.framework.utils;
+
+import android.graphics.BitmapFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the BitmapUtils sample size and decoder scaling
+ * calculations at boundary sizes.
+ */
+public class BitmapUtilsTest {
+    @Test
+    public void sampleSize_isLargestPowerOfTwoThatCoversRequest() {
+        assertEquals(2, BitmapUtils.calculateInSampleSize(
+                options(1000, 1000), 500, 500));
+        assertEquals(1, BitmapUtils.calculateInSampleSize(
+                options(1000, 1000), 501, 501));
+        assertEquals(4, BitmapUtils.calculateInSampleSize(
+                options(1000, 1000), 250, 250));
+        assertEquals(2, BitmapUtils.calculateInSampleSize(
+                options(1000, 1000), 251, 251));
+    }
+
+    @Test
+    public void sampleSize_isLimitedBySmallerDimension() {
+        assertEquals(2, BitmapUtils.calculateInSampleSize(
+                options(4000, 1000), 500, 500));
+        assertEquals(2, BitmapUtils.calculateInSampleSize(
+                options(1000, 4000), 500, 500));
+    }
+
+    @Test
+    public void sampleSize_roundsOddSourceSizesDown() {
+        assertEquals(2, BitmapUtils.calculateInSampleSize(
+                options(1001, 1001), 500, 500));
+        assertEquals(1, BitmapUtils.calculateInSampleSize(
+                options(999, 999), 500, 500));
+    }
+
+    @Test
+    public void sampleSize_isOneForUnspecifiedOrLargerRequests() {
+        assertEquals(1, BitmapUtils.calculateInSampleSize(
+                options(1000, 1000), 0, 0));
+        assertEquals(1, BitmapUtils.calculateInSampleSize(
+                options(100, 100), 200, 200));
+    }
+
+    @Test
+    public void decodeOptions_exactPowerOfTwoIsNotScaled() {
+        BitmapFactory.Options options = decodeOptions(1000, 1000, 500, 500);
+
+        assertEquals(2, options.inSampleSize);
+        assertEquals(0, options.inDensity);
+        assertEquals(500, BitmapUtils.getSampledSize(1000, options));
+    }
+
+    @Test
+    public void decodeOptions_scalesSampledImageToRequestedSize() {
+        BitmapFactory.Options options = decodeOptions(1000, 1000, 300, 300);
+
+        assertEquals(2, options.inSampleSize);
+        assertEquals(500, options.inDensity);
+        assertEquals(300, options.inTargetDensity);
+        assertEquals(300, BitmapUtils.getSampledSize(1000, options));
+    }
+
+    @Test
+    public void decodeOptions_scalesAwayRoundedUpSampledPixel() {
+        // The decoder rounds 1001 / 2 up to 501.
+        BitmapFactory.Options options = decodeOptions(1001, 1001, 500, 500);
+
+        assertEquals(2, options.inSampleSize);
+        assertEquals(501, options.inDensity);
+        assertEquals(500, options.inTargetDensity);
+        assertEquals(500, BitmapUtils.getSampledSize(1001, options));
+    }
+
+    @Test
+    public void decodeOptions_matchesOneDimensionAndCoversTheOther() {
+        BitmapFactory.Options options = decodeOptions(1000, 500, 300, 300);
+
+        assertEquals(1, options.inSampleSize);
+        assertEquals(500, options.inDensity);
+        assertEquals(300, options.inTargetDensity);
+        assertEquals(600, BitmapUtils.getSampledSize(1000, options));
+        assertEquals(300, BitmapUtils.getSampledSize(500, options));
+    }
+
+    @Test
+    public void decodeOptions_neverScalesUp() {
+        BitmapFactory.Options options = decodeOptions(100, 100, 200, 200);
+
+        assertEquals(1, options.inSampleSize);
+        assertEquals(0, options.inDensity);
+        assertEquals(100, BitmapUtils.getSampledSize(100, options));
+    }
+
+    @Test
+    public void decodeOptions_unspecifiedSizeDecodesSource() {
+        BitmapFactory.Options options = decodeOptions(1000, 800, 0, 0);
+
+        assertEquals(1, options.inSampleSize);
+        assertEquals(0, options.inDensity);
+        assertEquals(1000, BitmapUtils.getSampledSize(1000, options));
+        assertEquals(800, BitmapUtils.getSampledSize(800, options));
+    }
+
+    /**
+     * Returns options containing the passed source bounds.
+     */
+    private static BitmapFactory.Options options(int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = width;
+        options.outHeight = height;
+        return options;
+    }
+
+    /**
+     * Returns the decode options for the passed source and requested sizes.
+     */
+    private static BitmapFactory.Options decodeOptions(
+            int width, int height, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = options(width, height);
+        BitmapUtils.setDecodeOptions(options, reqWidth, reqHeight, null);
+        return options;
+    }
+}